@@ -6,6 +6,7 @@ import edu.mora.db.table.Schema;
 import edu.mora.db.table.Table;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -14,12 +15,18 @@ import java.util.*;
  * catalog.meta layout ------------------- int    nextTableId int    tableCount REPEAT tableCount { UTF
  * tableName int         tableId int         colCount REPEAT colCount { UTF colName, int colTypeOrdinal } int
  * pageCount REPEAT pageCount { int pageId } }
+ * <p>
+ * Pages allocated between two DDL statements are not written into catalog.meta (which is rewritten in full) but
+ * appended to catalog.pages as {@code int tableId, int pageId} pairs (a released page as {@code ~pageId}); the journal
+ * is replayed on load and emptied by the next full save.
  */
 public class Catalog {
 
     private static final String CATALOG_FILE = "catalog.meta";
+    private static final String PAGE_JOURNAL_FILE = "catalog.pages";
 
     private final File metaFile;
+    private final File journalFile;
     private final DiskManager disk;
     private final BufferPool pool;
 
@@ -32,9 +39,10 @@ public class Catalog {
 
     /* ------------------------------------------------------------ */
     public Catalog(String dir, BufferPool pool) throws IOException {
-        this.disk = new DiskManager(dir);
+        this.disk = pool.getDiskManager();             // one page allocator per database file
         this.pool = pool;
         this.metaFile = new File(dir, CATALOG_FILE);
+        this.journalFile = new File(dir, PAGE_JOURNAL_FILE);
 
         if (metaFile.exists()) load();
         else save();     // bootstrap
@@ -59,7 +67,15 @@ public class Catalog {
      */
     public synchronized void registerPage(String tableName, int pageId) throws IOException {
         pages.get(tableName).add(pageId);
-        save();                                         // flush meta incrementally
+        journal(tableName, pageId);
+    }
+
+    /**
+     * Called by Table when it gives a page back to the DiskManager.
+     */
+    public synchronized void releasePage(String tableName, int pageId) throws IOException {
+        pages.get(tableName).remove(Integer.valueOf(pageId));
+        journal(tableName, ~pageId);
     }
 
     public Table getTable(String name) {
@@ -71,6 +87,14 @@ public class Catalog {
     }
 
     /* ------------------------------------------------------------ */
+    private void journal(String tableName, int entry) throws IOException {
+        byte[] rec = new byte[2 * Integer.BYTES];       // one append instead of a full rewrite
+        ByteBuffer.wrap(rec).putInt(tableIds.get(tableName)).putInt(entry);
+        try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write(rec);
+        }
+    }
+
     private void save() throws IOException {
         try (DataOutputStream out = new DataOutputStream(new FileOutputStream(metaFile))) {
             out.writeInt(nextTableId);
@@ -92,6 +116,7 @@ public class Catalog {
                 for (int pid : plist) out.writeInt(pid);
             }
         }
+        new FileOutputStream(journalFile).close();     // everything journalled is in the snapshot now
     }
 
     private void load() throws IOException {
@@ -120,7 +145,31 @@ public class Catalog {
                 for (int i = 0; i < pageCnt; i++) plist.add(in.readInt());
                 pages.put(name, plist);
 
-                tables.put(name, new Table(name, schema, pool, disk, this, plist));
+            }
+        }
+        replayJournal();
+        for (String name : schemas.keySet()) {
+            tables.put(name, new Table(name, schemas.get(name), pool, disk, this, pages.get(name)));
+        }
+    }
+
+    /**
+     * Adds the page registrations appended since the last snapshot. An entry can already be in the snapshot if a
+     * crash hit between writing catalog.meta and emptying the journal; a torn last entry is ignored.
+     */
+    private void replayJournal() throws IOException {
+        if (!journalFile.exists()) return;
+        Map<Integer, String> byId = new HashMap<>();
+        tableIds.forEach((name, id) -> byId.put(id, name));
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            long entries = journalFile.length() / (2 * Integer.BYTES);
+            for (long e = 0; e < entries; e++) {
+                String name = byId.get(in.readInt());
+                int entry = in.readInt();
+                if (name == null) continue;
+                List<Integer> plist = pages.get(name);
+                if (entry < 0) plist.remove(Integer.valueOf(~entry));
+                else if (!plist.contains(entry)) plist.add(entry);
             }
         }
     }
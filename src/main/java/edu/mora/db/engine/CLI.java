@@ -23,7 +23,7 @@ public class CLI {
         DiskManager disk = new DiskManager(dbPath);
         BufferPool pool = new BufferPool(100, disk);
         WALManager wal = new WALManager(dbPath);
-        wal.recover(pool, disk);                // REDO / UNDO
+        wal.recover(disk);                      // REDO / UNDO
         TransactionManager txm = new TransactionManager(wal, pool, disk);
 
         /* ───── logical layer ───────────────────────────────────────────── */
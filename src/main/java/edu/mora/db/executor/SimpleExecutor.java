@@ -3,7 +3,9 @@ package edu.mora.db.executor;
 import edu.mora.db.catalog.Catalog;
 import edu.mora.db.parser.SQLParser;
 import edu.mora.db.sql.*;
+import edu.mora.db.storage.LockManager;
 import edu.mora.db.storage.RecordId;
+import edu.mora.db.storage.Snapshot;
 import edu.mora.db.storage.TransactionManager;
 import edu.mora.db.table.Schema;
 import edu.mora.db.table.Table;
@@ -12,14 +14,17 @@ import edu.mora.db.table.Tuple;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Executes parsed SQL.  Each INSERT / UPDATE / DELETE runs in its own single-statement transaction.
+ * Executes parsed SQL.  Each INSERT / UPDATE / DELETE runs in its own single-statement transaction; each SELECT reads
+ * a snapshot of the transactions committed when it started.
  */
 public class SimpleExecutor {
 
@@ -147,21 +152,44 @@ public class SimpleExecutor {
     private void execUpdate(long tx, UpdateStatement upd) throws IOException {
         Table tab = catalog.getTable(upd.tableName());
         Predicate<Tuple> pred = predicate(tab, upd.where());
-        for (Table.Row row : tab.scanRows(pred)) {
-            Tuple neu = applyAssignments(tab, row.tuple(), upd);
-            tab.updateTuple(tx, tm, row.rid(), neu);
-        }
+        forEachLockedRow(tx, tab, pred, (rid, current) -> {
+            Tuple neu = applyAssignments(tab, current, upd);    // from the locked row, not the scanned copy
+            return tab.updateTuple(tx, tm, rid, neu);
+        });
         System.out.println("Updated rows.");
     }
 
     private void execDelete(long tx, DeleteStatement del) throws IOException {
         Table tab = catalog.getTable(del.tableName());
         Predicate<Tuple> pred = predicate(tab, del.where());
-        for (Table.Row r : tab.scanRows(pred))
-            tab.deleteTuple(tx, tm, r.rid());
+        forEachLockedRow(tx, tab, pred, (rid, current) -> {
+            tab.deleteTuple(tx, tm, rid);
+            return rid;
+        });
         System.out.println("Deleted rows.");
     }
 
+    /**
+     * Finds the matching rows with an unlocked scan, then locks each one exclusively and re-reads it before handing it
+     * to {@code action}. A row another transaction moved while we waited is picked up at its new place by a rescan.
+     */
+    private void forEachLockedRow(long tx, Table tab, Predicate<Tuple> pred, RowAction action) throws IOException {
+        Set<RecordId> done = new HashSet<>();
+        for (boolean moved = true; moved; ) {
+            moved = false;
+            for (Table.Row row : tab.scanRows(pred)) {
+                if (done.contains(row.rid())) continue;
+                Tuple current = tab.lockAndRead(tx, tm, row.rid(), LockManager.Mode.EXCLUSIVE);
+                if (current == null) {
+                    moved = true;                               // deleted, or relocated by a growing update
+                    continue;
+                }
+                done.add(row.rid());
+                if (pred.test(current)) done.add(action.apply(row.rid(), current));
+            }
+        }
+    }
+
     private void execSelect(SelectStatement sel) throws IOException {
         Table tab = catalog.getTable(sel.tableName());
         Predicate<Tuple> pred = predicate(tab, sel.where());
@@ -171,8 +199,8 @@ public class SimpleExecutor {
 
         // Collect tuples to format output nicely
         List<Tuple> results = new ArrayList<>();
-        for (Tuple t : tab.scan(pred)) {
-            results.add(t);
+        try (Snapshot snap = tm.snapshot()) {                   // never waits for, nor blocks, a writer
+            results.addAll(tab.scan(snap, pred));
         }
 
         printTable(columnNames, results);
@@ -219,7 +247,9 @@ public class SimpleExecutor {
     private void execSelect(SelectStatement sel, java.util.function.Consumer<Tuple> sink) throws IOException {
         Table tab = catalog.getTable(sel.tableName());
         Predicate<Tuple> pred = predicate(tab, sel.where());
-        for (Tuple t : tab.scan(pred)) sink.accept(t);
+        try (Snapshot snap = tm.snapshot()) {
+            for (Tuple t : tab.scan(snap, pred)) sink.accept(t);
+        }
     }
 
     /* wrapper */
@@ -228,6 +258,11 @@ public class SimpleExecutor {
         void run(long txId) throws Exception;
     }
 
+    @FunctionalInterface
+    private interface RowAction {
+        RecordId apply(RecordId rid, Tuple current) throws IOException;    // returns where the row is now
+    }
+
     private record Hint(boolean fast, String sql) {
     }
 }
\ No newline at end of file
@@ -1,90 +1,864 @@
 package edu.mora.db.storage;
 
 import java.io.IOException;
-import java.util.LinkedHashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Simple LRU buffer pool.
+ * Partitioned buffer pool with explicit pinning and a pluggable {@link ReplacementPolicy} (LRU by default).
+ * <p>
+ * Page ids are hashed onto independent shards. Each shard owns a set of frames, a lock-free lookup table and a lock
+ * that is only taken on a miss, so a hit never waits for another thread's miss and misses in different shards run side
+ * by side. Page contents are protected by the per-frame latches in {@link Page}, and live off-heap in a
+ * {@link FrameArena} that disk reads fill directly.
+ * <p>
+ * Disk transfers go through an {@link IOEngine}. A miss maps its frame before the read is issued and only holds the
+ * shard lock to do so; threads that miss on the same page meanwhile find the frame and wait for the same read.
+ * Read-ahead and write-back submit all their requests before waiting, so they keep several on the device.
+ * <p>
+ * Once a {@link #setWriteAheadLog(WALManager) log is attached}, every write-back first makes the log durable up to the
+ * page's {@link Page#getPageLsn() LSN} (the write-ahead rule), so updates need not force the log themselves.
+ * <p>
+ * Callers bracket every use of a page with {@link #fetchPage(int)} / {@link #unpinPage(int, boolean)}; only frames
+ * with a pin count of zero are ever chosen for eviction, which is also what makes {@link #resize(int)} safe under load.
+ * <p>
+ * Dirty pages are normally written back in the background by a {@link PageCleaner}, so that a miss rarely has to write
+ * its victim itself; {@link #getSyncWriteBacks()} counts the times it did. Sequential readers can pass a
+ * {@link #prefetch(List)} hint so that runs of adjacent pages are faulted in with one disk request, and large scans
+ * go through a {@link ScanRing} so that they do not flush the working set out of the pool.
  */
 public class BufferPool {
-    private final int capacity;
+    private static final int MIN_FRAMES_PER_SHARD = 8;
+    /**
+     * Upper bound on the pages combined into one gathering write-back.
+     */
+    static final int MAX_GATHER_PAGES = 64;
+    /**
+     * Frames in the private ring of a large scan (256 KiB with 4 KiB pages).
+     */
+    static final int SCAN_RING_FRAMES = 64;
+
     private final DiskManager diskManager;
-    private final LinkedHashMap<Integer, Page> cache;
+    private final FrameArena arena;
+    final IOEngine io;
+    private volatile WALManager wal;
+    private final Shard[] shards;
+    private final AtomicLong syncWriteBacks = new AtomicLong();
+    private final Set<ScanRing> rings = ConcurrentHashMap.newKeySet();
+    private final FrameSource sharedFrames = new FrameSource() {
+        @Override
+        public Page claim(Shard s) throws IOException {
+            return s.claimFrame();
+        }
+
+        @Override
+        public void loaded(Shard s, Page p) {
+            s.policy.onLoad(p);
+        }
+    };
 
     public BufferPool(int capacity, DiskManager diskManager) {
-        this.capacity = capacity;
+        this(capacity, diskManager, ReplacementPolicy.Kind.LRU);
+    }
+
+    public BufferPool(int capacity, DiskManager diskManager, ReplacementPolicy.Kind policy) {
+        this(capacity, diskManager, defaultShardCount(capacity), policy);
+    }
+
+    public BufferPool(int capacity, DiskManager diskManager, int shardCount) {
+        this(capacity, diskManager, shardCount, ReplacementPolicy.Kind.LRU);
+    }
+
+    public BufferPool(int capacity, DiskManager diskManager, int shardCount, ReplacementPolicy.Kind policy) {
+        if (capacity < 1 || shardCount < 1 || shardCount > capacity)
+            throw new IllegalArgumentException("capacity=" + capacity + ", shards=" + shardCount);
         this.diskManager = diskManager;
-        // access-order for LRU tracking
-        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+        this.arena = new FrameArena(diskManager.getPageSize(), capacity);
+        this.io = new IOEngine(diskManager, IOEngine.DEFAULT_DEPTH);
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            int frames = framesForShard(capacity, i);
+            shards[i] = new Shard(frames, ReplacementPolicy.create(policy, frames));
+        }
+    }
+
+    private static int defaultShardCount(int capacity) {
+        int byCores = 2 * Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(byCores, capacity / MIN_FRAMES_PER_SHARD));
     }
 
     /**
-     * Fetches the page from cache or loads from disk if missing. Automatically evicts if capacity exceeded.
+     * Fetches the page from cache or loads it from disk, evicting an unpinned page if the shard is full. The returned
+     * page is pinned and stays resident until the matching {@link #unpinPage(int, boolean)}.
+     *
+     * @throws IllegalStateException if every frame of the page's shard is pinned
      */
-    public synchronized Page getPage(int pageId) throws IOException {
-        // Hit?
-        if (cache.containsKey(pageId)) {
-            return cache.get(pageId);
-        }
-        // miss: load from disk
-        byte[] data = diskManager.readPage(pageId);
-        Page p = new Page(pageId);
-        System.arraycopy(data, 0, p.getData(), 0, Page.PAGE_SIZE);
-        cache.put(pageId, p);
-        // Enforce capacity
-        if (cache.size() > capacity) {
-            evictDirtyOrLRU();
+    public Page fetchPage(int pageId) throws IOException {
+        Shard s = shardFor(pageId);
+        while (true) {
+            Page p = pinResident(s, pageId);
+            if (p == null) {
+                p = s.load(pageId);
+            } else {
+                s.policy.onAccess(p);
+            }
+            if (awaitLoaded(s, p)) return p;
         }
+    }
+
+    /**
+     * Releases one pin taken by {@link #fetchPage(int)}; {@code dirty} records that the caller modified the page.
+     */
+    public void unpinPage(int pageId, boolean dirty) {
+        Page p = shardFor(pageId).table.get(pageId);
+        if (p == null || p.getPageId() != pageId)
+            throw new IllegalStateException("Page " + pageId + " is not resident");
+        if (dirty) p.markDirty(true);
+        p.unpin();
+    }
+
+    /**
+     * Convenience for single-threaded callers (tests, tools): fetches the page and drops the pin straight away, so the
+     * frame may be recycled as soon as another page is fetched.
+     */
+    public Page getPage(int pageId) throws IOException {
+        Page p = fetchPage(pageId);
+        p.unpin();
         return p;
     }
 
+    /**
+     * Read-ahead hint: loads those of {@code pageIds} that are not resident yet, reading every run of consecutive page
+     * ids with a single disk request. Prefetched pages are left unpinned. Best-effort – at most a quarter of the pool
+     * is prefetched per call, and a run stops early if its shard has no unpinned frame to spare.
+     */
+    public void prefetch(List<Integer> pageIds) throws IOException {
+        prefetch(pageIds, Math.max(1, getCapacity() / 4), sharedFrames);
+    }
+
+    /**
+     * Access strategy for a scan over {@code pages} pages: scans larger than a quarter of the pool get a private
+     * {@link ScanRing}, smaller ones one that simply passes through to the shared pool.
+     */
+    public ScanRing scanRing(int pages) {
+        ScanRing ring = new ScanRing(pages > getCapacity() / 4 ? SCAN_RING_FRAMES : 0);
+        if (ring.frames.length > 0) rings.add(ring);
+        return ring;
+    }
+
+    /**
+     * Drops a cached page without writing it back, for pages that are being freed. The page must not be pinned.
+     */
+    public void discardPage(int pageId) {
+        shardFor(pageId).discardPage(pageId);
+    }
+
+    /**
+     * Marks a page as dirty and records {@code lsn}, the log record describing the change, as its page LSN. The caller
+     * still holds the page's write latch, so no write-back can slip in between the change and this call.
+     */
+    public void markDirty(int pageId, long lsn) {
+        Page p = shardFor(pageId).table.get(pageId);
+        if (p != null && p.getPageId() == pageId) {
+            if (!p.isDirty() || p.getRecLsn() == 0) p.setRecLsn(lsn);
+            if (lsn > p.getPageLsn()) p.setPageLsn(lsn);
+            p.markDirty(true);
+        }
+    }
+
+    /**
+     * Enforces the write-ahead rule against {@code wal} from now on: no page is written back before the log records
+     * of its changes are durable.
+     */
+    public void setWriteAheadLog(WALManager wal) {
+        this.wal = wal;
+    }
+
+    /**
+     * The dirty page table for a checkpoint: every dirty page whose changes were logged, with its recLSN. A page whose
+     * write-back is still in flight counts as dirty, so every page left out has reached the file (if not yet stable
+     * storage: see {@link DiskManager#sync()}).
+     */
+    public Map<Integer, Long> dirtyPageTable() {
+        Map<Integer, Long> dpt = new HashMap<>();
+        List<Page> all = new ArrayList<>();
+        for (Shard s : shards) all.addAll(Arrays.asList(s.frames));
+        for (ScanRing r : rings) all.addAll(Arrays.asList(r.frames));
+        for (Page p : all) {
+            int pid = p.getPageId();
+            boolean dirty = p.isDirty() || p.isWriting();   // in this order: a write-back sets writing, then clean
+            long recLsn = p.getRecLsn();
+            if (dirty && recLsn != 0 && pid != Page.INVALID_PAGE_ID) dpt.merge(pid, recLsn, Math::min);
+        }
+        return dpt;
+    }
+
     /**
      * Marks a page as dirty, so we know to flush it before eviction.
      */
-    public synchronized void markDirty(int pageId, boolean dirty) {
-        Page p = cache.get(pageId);
-        if (p != null) {
+    public void markDirty(int pageId, boolean dirty) {
+        Page p = shardFor(pageId).table.get(pageId);
+        if (p != null && p.getPageId() == pageId) {
             p.markDirty(dirty);
         }
     }
 
     /**
-     * Flushes all dirty pages to disk.
+     * Flushes all dirty pages to disk, adjacent pages with one gathering write. Only takes the read latches of dirty
+     * frames, so it runs concurrently with lookups, misses and readers.
      */
-    public synchronized void flushAll() throws IOException {
-        for (Page p : cache.values()) {
-            if (p.isDirty()) {
-                diskManager.writePage(p.getPageId(), p.getData());
-                p.markDirty(false);
+    public void flushAll() throws IOException {
+        flushFrames(dirtyFrames());
+    }
+
+    /**
+     * Grows or shrinks the pool while it is in use. Growing adds free frames; shrinking only retires frames that are
+     * free or unpinned (writing them back first), so a shard whose frames are all pinned keeps them.
+     *
+     * @return the capacity actually reached
+     */
+    public int resize(int newCapacity) throws IOException {
+        if (newCapacity < shards.length)
+            throw new IllegalArgumentException("capacity " + newCapacity + " < shard count " + shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].resize(framesForShard(newCapacity, i));
+        }
+        return getCapacity();
+    }
+
+    public int getCapacity() {
+        int n = 0;
+        for (Shard s : shards) n += s.frames.length;
+        return n;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int getPageSize() {
+        return diskManager.getPageSize();
+    }
+
+    public DiskManager getDiskManager() {
+        return diskManager;
+    }
+
+    /**
+     * Whether the page is currently cached (without loading it or touching the replacement policy).
+     */
+    boolean isResident(int pageId) {
+        Page p = shardFor(pageId).table.get(pageId);
+        return p != null && p.getPageId() == pageId;
+    }
+
+    /**
+     * Number of dirty victims a miss had to write back synchronously since the pool was created.
+     */
+    public long getSyncWriteBacks() {
+        return syncWriteBacks.get();
+    }
+
+    /* ---------- page-cleaner support ---------- */
+
+    /**
+     * Snapshot of the frames that currently hold a dirty page (the dirty-page table); see {@link Page#dirtySince()}.
+     */
+    List<Page> dirtyFrames() {
+        List<Page> out = new ArrayList<>();
+        for (Shard s : shards) {
+            for (Page p : s.frames) {
+                if (p.isDirty() && p.getPageId() != Page.INVALID_PAGE_ID) out.add(p);
             }
         }
+        for (ScanRing r : rings) {
+            for (Page p : r.frames) {
+                if (p.isDirty() && p.getPageId() != Page.INVALID_PAGE_ID) out.add(p);
+            }
+        }
+        return out;
     }
 
     /**
-     * Evicts the first dirty page (LRU dirty) or, if none, the LRU clean page.
+     * Frames a miss could take right now without a write: empty ones, and clean ones nobody has pinned.
      */
-    private void evictDirtyOrLRU() throws IOException {
-        // Find LRU dirty page
-        for (Map.Entry<Integer, Page> e : cache.entrySet()) {
-            if (e.getValue().isDirty()) {
-                evictPage(e.getKey(), e.getValue());
-                cache.remove(e.getKey());
-                return;
+    int cleanFrameCount() {
+        int n = 0;
+        for (Shard s : shards) {
+            for (Page p : s.frames) {
+                if (p.getPageId() == Page.INVALID_PAGE_ID || (!p.isDirty() && p.getPinCount() == 0)) n++;
             }
         }
-        // Evict LRU clean page
-        Map.Entry<Integer, Page> eldest = cache.entrySet().iterator().next();
-        evictPage(eldest.getKey(), eldest.getValue());
-        cache.remove(eldest.getKey());
+        return n;
+    }
+
+    private int framesForShard(int capacity, int shard) {
+        return capacity / shards.length + (shard < capacity % shards.length ? 1 : 0);
+    }
+
+    private Shard shardFor(int pageId) {
+        return shards[Math.floorMod(pageId, shards.length)];
     }
 
     /**
-     * Flushes a single page if dirty, then removes it.
+     * Pins the page if it is cached, without telling the replacement policy; {@code null} on a miss.
      */
-    private void evictPage(int pageId, Page p) throws IOException {
-        if (p.isDirty()) {
-            diskManager.writePage(pageId, p.getData());
+    private static Page pinResident(Shard s, int pageId) {
+        while (true) {
+            Page p = s.table.get(pageId);
+            if (p == null) return null;
+            if (!p.tryPin()) continue;                  // being evicted – look again
+            if (p.getPageId() != pageId) {              // frame was recycled between lookup and pin
+                p.unpin();
+                continue;
+            }
+            return p;
+        }
+    }
+
+    /**
+     * Waits until the pinned frame {@code p} holds its page. If the read fails the frame is unmapped and unpinned, and
+     * the error is rethrown – unless it came from an earlier read-ahead nobody waited for, in which case the result is
+     * {@code false} and the caller should read the page again.
+     */
+    private static boolean awaitLoaded(Shard s, Page p) throws IOException {
+        CompletableFuture<Void> read = p.loading();
+        boolean stale = read.isCompletedExceptionally();
+        try {
+            IOEngine.await(read);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            s.unmapFailed(p, read);
+            p.unpin();
+            if (stale) return false;
+            throw e;
+        }
+    }
+
+    /**
+     * Loads up to {@code limit} of {@code pageIds} that are not resident, one scattering read per run of consecutive
+     * ids, into frames taken from {@code source}. The reads are submitted but not waited for.
+     */
+    private void prefetch(List<Integer> pageIds, int limit, FrameSource source) throws IOException {
+        int[] pids = pageIds.stream()
+                .mapToInt(Integer::intValue)
+                .limit(limit)
+                .sorted()
+                .distinct()
+                .toArray();
+        int start = 0;
+        for (int i = 1; i <= pids.length; i++) {
+            if (i == pids.length || pids[i] != pids[i - 1] + 1) {
+                prefetchRun(pids[start], i - start, source);
+                start = i;
+            }
+        }
+    }
+
+    /**
+     * Loads the missing pages among {@code count} consecutive ids. Each frame is claimed and mapped under its own
+     * shard's lock, taken one at a time, so a victim write-back during read-ahead only stalls that shard, like any
+     * miss. Frames mapped so far are pinned by the batch's pending read, which is submitted once the run is complete
+     * or interrupted by a resident page or a shard with nothing to spare.
+     */
+    private void prefetchRun(int firstPid, int count, FrameSource source) throws IOException {
+        List<Page> batch = new ArrayList<>();
+        int batchStart = firstPid;
+        CompletableFuture<Void> read = new CompletableFuture<>();
+        try {
+            for (int pid = firstPid; pid < firstPid + count; pid++) {
+                Shard s = shardFor(pid);
+                Page frame = null;
+                s.lock.lock();
+                try {
+                    if (!s.table.containsKey(pid)) frame = source.claim(s);
+                    if (frame != null) map(s, pid, frame, read, source);
+                } finally {
+                    s.lock.unlock();
+                }
+                if (frame == null) {                    // resident, or no frame to spare: read what we have
+                    if (!batch.isEmpty()) startRead(batchStart, batch, read);
+                    batch = new ArrayList<>();
+                    read = new CompletableFuture<>();
+                    batchStart = pid + 1;
+                    continue;
+                }
+                batch.add(frame);
+            }
+        } finally {                                     // also when a victim write-back failed
+            if (!batch.isEmpty()) startRead(batchStart, batch, read);
+        }
+    }
+
+    /**
+     * Maps a claimed frame as page {@code pid}, pinned by the pending {@code read}. Caller holds the shard's lock.
+     */
+    private static void map(Shard s, int pid, Page p, CompletableFuture<Void> read, FrameSource source) {
+        p.markDirty(false);
+        p.setPageLsn(0);
+        p.setRecLsn(0);
+        p.setLoading(read);
+        p.setPageId(pid);
+        p.release(1);                                   // the read's pin
+        s.table.put(pid, p);
+        source.loaded(s, p);
+    }
+
+    /**
+     * Submits the read of frames mapped as pages {@code firstPid ...} and pinned once each for it. On completion the
+     * pins are dropped before {@code read} is completed, so a waiter sees only its own pin.
+     */
+    private void startRead(int firstPid, List<Page> frames, CompletableFuture<Void> read) {
+        ByteBuffer[] dsts = new ByteBuffer[frames.size()];
+        for (int i = 0; i < dsts.length; i++) dsts[i] = frames.get(i).ioBuffer();
+        io.read(firstPid, dsts).whenComplete((v, failure) -> {
+            for (Page p : frames) p.unpin();
+            if (failure == null) read.complete(null);
+            else read.completeExceptionally(failure);
+        });
+    }
+
+    /**
+     * Writes back the given frames, sorted by page id so that each run of adjacent pages (up to
+     * {@link #MAX_GATHER_PAGES}) goes out as one gathering write, with up to {@link IOEngine#getDepth()} runs in
+     * flight. The read latches of a run are taken in page order and held until its write completes; a frame that was
+     * cleaned or recycled since the caller looked at it is skipped.
+     */
+    void flushFrames(List<Page> frames) throws IOException {
+        int n = frames.size();
+        long[] keys = new long[n];                      // page id (as seen now; re-checked under the latch) | index
+        for (int i = 0; i < n; i++) keys[i] = (long) frames.get(i).getPageId() << 32 | i;
+        Arrays.sort(keys);
+        int[] pids = new int[n];
+        Page[] sorted = new Page[n];
+        for (int i = 0; i < n; i++) {
+            pids[i] = (int) (keys[i] >> 32);
+            sorted[i] = frames.get((int) keys[i]);
+        }
+
+        ArrayDeque<PendingWrite> inFlight = new ArrayDeque<>();
+        try {
+            for (int i = 0; i < n; ) {
+                int first = pids[i];
+                List<Page> run = new ArrayList<>();
+                while (i < n && pids[i] == first + run.size() && run.size() < MAX_GATHER_PAGES) {
+                    Page p = sorted[i++];
+                    p.readLatch().lock();
+                    if (p.getPageId() != pids[i - 1] || !p.isDirty() || pids[i - 1] == Page.INVALID_PAGE_ID) {
+                        p.readLatch().unlock();
+                        break;
+                    }
+                    run.add(p);
+                }
+                if (run.isEmpty()) continue;
+                inFlight.add(startWrite(first, run));
+                if (inFlight.size() >= io.getDepth()) finishWrite(inFlight.poll());
+            }
+        } finally {
+            IOException failed = null;
+            while (!inFlight.isEmpty()) {
+                try {
+                    finishWrite(inFlight.poll());
+                } catch (IOException e) {
+                    if (failed == null) failed = e;
+                }
+            }
+            if (failed != null) throw failed;
+        }
+    }
+
+    /**
+     * Submits the write of a run of read-latched, dirty frames holding pages {@code first, first + 1, ...}, once the
+     * log covers all of them. If forcing the log fails the run is unlatched and left dirty.
+     */
+    private PendingWrite startWrite(int first, List<Page> run) throws IOException {
+        long lsn = 0;
+        for (Page p : run) lsn = Math.max(lsn, p.getPageLsn());
+        try {
+            forceLog(lsn);
+        } catch (IOException e) {
+            for (Page p : run) p.readLatch().unlock();
+            throw e;
+        }
+        ByteBuffer[] srcs = new ByteBuffer[run.size()];
+        for (int i = 0; i < srcs.length; i++) {
+            run.get(i).setWriting(true);        // until then the dirty page table still lists it
+            run.get(i).markDirty(false);        // a concurrent writer re-marks it after this point
+            srcs[i] = run.get(i).ioBuffer();
+        }
+        return new PendingWrite(run, io.write(first, srcs));
+    }
+
+    /**
+     * Waits for a write started by {@link #startWrite(int, List)} and unlatches its frames.
+     */
+    private static void finishWrite(PendingWrite w) throws IOException {
+        try {
+            IOEngine.await(w.done());
+        } catch (IOException e) {
+            for (Page p : w.run()) p.markDirty(true);
+            throw e;
+        } finally {
+            for (Page p : w.run()) {
+                p.setWriting(false);
+                p.readLatch().unlock();
+            }
+        }
+    }
+
+    private record PendingWrite(List<Page> run, CompletableFuture<Void> done) {
+    }
+
+    /**
+     * Write-ahead rule: makes the log durable up to {@code lsn} before a page carrying it is written.
+     */
+    private void forceLog(long lsn) throws IOException {
+        WALManager log = wal;
+        if (log != null && lsn > 0) log.flush(lsn);
+    }
+
+    /**
+     * One partition of the pool. {@link #table} is read without locking; {@link #lock} serialises misses (frame
+     * assignment, eviction and the disk read) and resizing within this shard only.
+     */
+    private final class Shard {
+        final ConcurrentHashMap<Integer, Page> table = new ConcurrentHashMap<>();
+        final ArrayDeque<Page> free = new ArrayDeque<>();
+        final ReentrantLock lock = new ReentrantLock();
+        final ReplacementPolicy policy;
+        volatile Page[] frames = new Page[0];
+
+        Shard(int frameCount, ReplacementPolicy policy) {
+            this.policy = policy;
+            addFrames(frameCount);
+        }
+
+        /**
+         * Maps a frame for the page and submits its read; the frame is returned pinned, possibly before the read has
+         * completed (see {@link Page#loading()}).
+         */
+        Page load(int pageId) throws IOException {
+            Page p;
+            CompletableFuture<Void> read = new CompletableFuture<>();
+            lock.lock();
+            try {
+                p = table.get(pageId);                  // another thread may have loaded it meanwhile
+                if (p != null && p.tryPin()) {          // (nothing in this shard is evicted while we hold the lock)
+                    policy.onAccess(p);
+                    return p;
+                }
+                p = free.poll();
+                if (p == null) p = evict();             // returned claimed and unmapped
+                p.markDirty(false);
+                p.setPageLsn(0);
+                p.setRecLsn(0);
+                p.setLoading(read);
+                p.setPageId(pageId);
+                p.release(2);                           // the caller's pin and the read's
+                table.put(pageId, p);
+                policy.onLoad(p);
+            } finally {
+                lock.unlock();
+            }
+            startRead(pageId, List.of(p), read);
+            return p;
+        }
+
+        /**
+         * Unmaps a frame whose read failed, unless it has been reused since. It stays with the replacement policy
+         * and is recycled like any other victim once its last waiter has unpinned it.
+         */
+        void unmapFailed(Page p, CompletableFuture<Void> read) {
+            lock.lock();
+            try {
+                if (p.loading() == read && table.remove(p.getPageId(), p)) p.setPageId(Page.INVALID_PAGE_ID);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * A free or evicted frame for a prefetch, or {@code null} if every frame is pinned. Caller holds the lock.
+         */
+        Page claimFrame() throws IOException {
+            Page p = free.poll();
+            if (p != null) return p;
+            try {
+                return evict();
+            } catch (IllegalStateException allPinned) {
+                return null;
+            }
+        }
+
+        void discardPage(int pageId) {
+            lock.lock();
+            try {
+                Page p = table.get(pageId);
+                if (p == null) return;
+                if (!p.tryClaim()) throw new IllegalStateException("Page " + pageId + " is pinned");
+                p.writeLatch().lock();          // waits for an in-progress flush
+                try {
+                    table.remove(pageId);
+                    p.markDirty(false);
+                    p.setPageId(Page.INVALID_PAGE_ID);
+                } finally {
+                    p.writeLatch().unlock();
+                }
+                policy.remove(p);
+                p.release(0);
+                if (Arrays.asList(frames).contains(p)) free.add(p);     // a ring frame just stays in its ring
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Takes over a ring frame that is still pinned when its {@link ScanRing} closes, then sheds one frame so the
+         * shard keeps its size.
+         */
+        void adopt(Page f) throws IOException {
+            lock.lock();
+            try {
+                int n = frames.length;
+                Page[] grown = Arrays.copyOf(frames, n + 1);
+                grown[n] = f;
+                frames = grown;
+                policy.onLoad(f);
+                resize(n);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void resize(int target) throws IOException {
+            lock.lock();
+            try {
+                int n = frames.length;
+                policy.resize(target);
+                if (target > n) {
+                    addFrames(target - n);
+                    return;
+                }
+                Page[] keep = frames.clone();
+                while (n > target) {
+                    Page retired = free.poll();
+                    if (retired == null) {
+                        try {
+                            retired = evict();
+                        } catch (IllegalStateException allPinned) {
+                            break;
+                        }
+                        policy.remove(retired);
+                    }
+                    arena.release(retired.slot());
+                    for (int i = 0; i < n; i++) {
+                        if (keep[i] == retired) {
+                            keep[i] = keep[--n];
+                            break;
+                        }
+                    }
+                }
+                frames = Arrays.copyOf(keep, n);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void addFrames(int count) {
+            Page[] grown = Arrays.copyOf(frames, frames.length + count);
+            for (int i = frames.length; i < grown.length; i++) {
+                grown[i] = new Page(arena.allocate());
+                free.add(grown[i]);
+            }
+            frames = grown;
+        }
+
+        /**
+         * Asks the policy for an unpinned victim, writing it back first if it is dirty. The victim is returned claimed
+         * (pin count -1) and already removed from the table.
+         */
+        private Page evict() throws IOException {
+            Page victim = policy.evict();
+            if (victim == null)
+                throw new IllegalStateException("Buffer pool shard exhausted: every frame is pinned");
+
+            int oldId = victim.getPageId();
+            victim.writeLatch().lock();         // waits for an in-progress flush of this frame
+            try {
+                if (victim.isDirty()) {
+                    syncWriteBacks.incrementAndGet();
+                    forceLog(victim.getPageLsn());
+                    diskManager.writePage(oldId, victim.ioBuffer());
+                    victim.markDirty(false);
+                }
+                table.remove(oldId);
+                victim.setPageId(Page.INVALID_PAGE_ID);
+            } catch (IOException e) {
+                policy.onLoad(victim);          // still holds its old page; keep tracking it
+                victim.release(0);
+                throw e;
+            } finally {
+                victim.writeLatch().unlock();
+            }
+            return victim;
+        }
+    }
+
+    /**
+     * Where batched reads take their frames from: a shard's own frames, tracked by its replacement policy, or the
+     * private frames of a {@link ScanRing}.
+     */
+    private interface FrameSource {
+        /**
+         * A claimed, unmapped frame for a page of shard {@code s}, or {@code null} if none can be spared.
+         */
+        Page claim(Shard s) throws IOException;
+
+        void loaded(Shard s, Page p);
+    }
+
+    /**
+     * Buffer access strategy for large sequential scans, obtained from {@link #scanRing(int)}. Pages the scan has to
+     * read from disk go into a small private ring of frames that is recycled round-robin, rather than displacing the
+     * shared working set through the replacement policy. Ring frames are mapped in the shared lookup tables, so other
+     * threads find, pin and modify them like any cached page; pages that are already cached are used in place.
+     * <p>
+     * A ring belongs to one scanning thread. Pages are released with {@link #unpinPage(int, boolean)} as usual, and
+     * {@link #close()} hands the frames back.
+     */
+    public final class ScanRing implements AutoCloseable {
+        private final Page[] frames;
+        private final FrameSource source = new FrameSource() {
+            @Override
+            public Page claim(Shard s) throws IOException {
+                return claimNext();
+            }
+
+            @Override
+            public void loaded(Shard s, Page p) {
+            }
+        };
+        private int hand;
+
+        private ScanRing(int size) {
+            frames = new Page[size];
+            for (int i = 0; i < size; i++) frames[i] = new Page(arena.allocate());
+        }
+
+        /**
+         * Like {@link BufferPool#fetchPage(int)}, but a miss recycles a ring frame instead of evicting a shared one.
+         */
+        public Page fetchPage(int pageId) throws IOException {
+            if (frames.length == 0) return BufferPool.this.fetchPage(pageId);
+            Shard s = shardFor(pageId);
+            Page p = pinResident(s, pageId);
+            if (p == null) {
+                prefetchRun(pageId, 1, source);
+                p = pinResident(s, pageId);
+            }
+            if (p == null) return BufferPool.this.fetchPage(pageId);     // every ring frame is pinned elsewhere
+            return awaitLoaded(s, p) ? p : BufferPool.this.fetchPage(pageId);
+        }
+
+        /**
+         * Read-ahead into the ring; at most half of it is filled per call, so the pages being read stay put.
+         */
+        public void prefetch(List<Integer> pageIds) throws IOException {
+            if (frames.length == 0) BufferPool.this.prefetch(pageIds);
+            else BufferPool.this.prefetch(pageIds, frames.length / 2, source);
+        }
+
+        /**
+         * The next ring frame that nobody has pinned, written back and unmapped. Its old page is unmapped under that
+         * page's shard lock, as an eviction would be; if another thread holds that lock the frame is skipped rather
+         * than waited for, since the caller already holds a shard lock of its own.
+         */
+        private Page claimNext() throws IOException {
+            for (int tries = 0; tries < frames.length; tries++) {
+                Page f = frames[hand];
+                hand = (hand + 1) % frames.length;
+                if (!f.tryClaim()) continue;
+                int old = f.getPageId();
+                if (old == Page.INVALID_PAGE_ID) return f;
+
+                Shard owner = shardFor(old);
+                if (!owner.lock.tryLock()) {
+                    f.release(0);
+                    continue;
+                }
+                f.writeLatch().lock();
+                try {
+                    if (f.isDirty()) {
+                        forceLog(f.getPageLsn());
+                        diskManager.writePage(old, f.ioBuffer());
+                        f.markDirty(false);
+                    }
+                    owner.table.remove(old, f);
+                    f.setPageId(Page.INVALID_PAGE_ID);
+                } catch (IOException e) {
+                    f.release(0);
+                    throw e;
+                } finally {
+                    f.writeLatch().unlock();
+                    owner.lock.unlock();
+                }
+                return f;
+            }
+            return null;
+        }
+
+        /**
+         * Writes back and unmaps the ring's pages and returns its memory to the arena. Frames another thread still has
+         * pinned are handed over to their shard instead.
+         */
+        @Override
+        public void close() throws IOException {
+            if (frames.length == 0) return;
+            try {
+                for (Page f : frames) retire(f);
+            } finally {
+                rings.remove(this);
+            }
+        }
+
+        private void retire(Page f) throws IOException {
+            if (!f.tryClaim()) {
+                shardFor(f.getPageId()).adopt(f);
+                return;
+            }
+            int pid = f.getPageId();
+            if (pid != Page.INVALID_PAGE_ID) {
+                Shard owner = shardFor(pid);
+                owner.lock.lock();
+                f.writeLatch().lock();
+                try {
+                    if (f.isDirty()) {
+                        forceLog(f.getPageLsn());
+                        diskManager.writePage(pid, f.ioBuffer());
+                        f.markDirty(false);
+                    }
+                    owner.table.remove(pid, f);
+                    f.setPageId(Page.INVALID_PAGE_ID);
+                } catch (IOException e) {
+                    f.release(0);
+                    owner.adopt(f);
+                    throw e;
+                } finally {
+                    f.writeLatch().unlock();
+                    owner.lock.unlock();
+                }
+            }
+            arena.release(f.slot());
         }
     }
 }
@@ -0,0 +1,62 @@
+package edu.mora.db.storage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * CLOCK (second chance). Frames sit on a ring; a hit just sets the frame's reference bit, and the hand clears bits
+ * until it reaches an unreferenced, unpinned frame. A victim keeps its ring slot, since the pool reloads it straight
+ * away; a read-ahead claims several victims before it loads any of them, so more than one can be pending.
+ */
+final class ClockPolicy implements ReplacementPolicy {
+    private final ArrayList<Page> ring = new ArrayList<>();
+    private int hand;
+    private final Set<Page> pending = new HashSet<>();     // victims not yet reloaded, still occupying their slots
+
+    @Override
+    public synchronized void onLoad(Page frame) {
+        frame.setReferenced(true);
+        if (!pending.remove(frame)) ring.add(frame);
+    }
+
+    @Override
+    public void onAccess(Page frame) {
+        frame.setReferenced(true);
+    }
+
+    @Override
+    public synchronized Page evict() {
+        int n = ring.size();
+        for (int step = 0; step < 2 * n; step++) {  // two sweeps: the first may only clear bits
+            if (hand >= n) hand = 0;
+            Page f = ring.get(hand++);
+            if (f.getPinCount() > 0 || pending.contains(f)) continue;
+            if (f.isReferenced()) {
+                f.setReferenced(false);
+            } else if (f.tryClaim()) {
+                pending.add(f);
+                return f;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void remove(Page frame) {
+        pending.remove(frame);
+        int i = ring.indexOf(frame);
+        if (i < 0) return;
+        int last = ring.size() - 1;
+        ring.set(i, ring.get(last));
+        ring.remove(last);
+        if (hand > last) hand = 0;
+    }
+
+    /**
+     * Frames on the ring.
+     */
+    synchronized int size() {
+        return ring.size();
+    }
+}
@@ -0,0 +1,13 @@
+package edu.mora.db.storage;
+
+/**
+ * Thrown by {@link LockManager#lock(long, Object, LockManager.Mode)} when a transaction cannot get a lock without
+ * deadlocking or within the lock timeout. The transaction should be rolled back, which releases its locks.
+ */
+public class DeadlockException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DeadlockException(String message) {
+        super(message);
+    }
+}
@@ -1,41 +1,410 @@
 package edu.mora.db.storage;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Page-granular access to {@code database.db}.
+ * <p>
+ * Single-page reads and writes use positional {@link FileChannel} I/O ({@code pread}/{@code pwrite}), which never
+ * touches the channel's file position, so concurrent buffer-pool misses and write-backs run in parallel. Only the
+ * multi-page scattering/gathering calls go through the shared position and are serialised among themselves. Page ids
+ * come from one atomic counter; open a single {@code DiskManager} per database and share it (the catalog takes the
+ * pool's).
+ * <p>
+ * In {@link Mode#MMAP} mode the file is instead mapped in {@link #MMAP_CHUNK_BYTES} chunks, added as the database
+ * grows, and page I/O becomes a memory copy to or from the mapping. Writes reach the OS page cache exactly as a
+ * {@code pwrite} would, so what survives a crash is unchanged – the WAL still provides durability – and
+ * {@link #sync()} forces only the chunks written since the last call. A clean {@link #close()} trims the file back to
+ * its last page; after a crash it keeps the chunk-rounded length and the tail reads as empty pages.
+ * <p>
+ * The file grows in extents of {@link #DEFAULT_EXTENT_PAGES} pages (configurable), each zero-filled with a single
+ * write; {@link #allocatePage()} then hands out pages of the current extent from memory without any I/O. The
+ * high-water mark lives in the small {@code database.hdr} file, written only on open and on a clean close: after a
+ * crash allocation resumes at the end of the preallocated file, so at most one extent of never-used pages is skipped
+ * – or, in {@link Mode#MMAP} mode, where that end is chunk-rounded, up to one chunk. Skipped pages are never handed
+ * out: a page allocated before the crash may be recorded only in the log, so an empty page is no proof it is unused.
+ * <p>
+ * Pages given back with {@link #freePage(int)} are recorded in a free-space map ({@code database.fsm}, one bit per
+ * page, updated in place byte by byte) and reused by {@link #allocatePage()} before the file is extended.
+ */
 public class DiskManager {
+    /**
+     * Size of one mapping in {@link Mode#MMAP} mode (a multiple of the page size).
+     */
+    static final long MMAP_CHUNK_BYTES = 64L << 20;
+    /**
+     * Pages added to the file at a time (1 MiB with 4 KiB pages).
+     */
+    public static final int DEFAULT_EXTENT_PAGES = 256;
     private static final String DB_FILE = "database.db";
-    private final RandomAccessFile file;
-    private int nextPageId = 0;
+    private static final String HEADER_FILE = "database.hdr";
+    private static final String FSM_FILE = "database.fsm";
+    private static final int HEADER_MAGIC = 0x4D4F5241;         // "MORA"
+    /**
+     * Format of the file. Version 2 gave heap pages a page LSN ({@link HeapPage}); pages of version 1 cannot be read
+     * by this version.
+     */
+    private static final int HEADER_VERSION = 2;
+    /**
+     * Page-size argument meaning "whatever the database was created with" ({@link Page#PAGE_SIZE} for a new one).
+     */
+    public static final int RECORDED_PAGE_SIZE = 0;
+    public static final int MIN_PAGE_SIZE = 1 << 10;
+    public static final int MAX_PAGE_SIZE = 1 << 16;
+    private final Mode mode;
+    private final int pageSize;
+    private final FileChannel channel;
+    private final FileChannel header;
+    private final int extentPages;
+    private final AtomicInteger nextPageId;
+    private volatile int filePages;                             // preallocated length of the file, in pages
+    private final FileChannel fsm;
+    private final BitSet freePages = new BitSet();              // guarded by itself
+    private volatile boolean anyFree;
+    private final Object positionLock = new Object();        // for the scatter/gather calls
+    /* MMAP mode only */
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    private final Set<Integer> dirtyChunks = ConcurrentHashMap.newKeySet();
 
     public DiskManager(String path) throws IOException {
-        this.file = new RandomAccessFile(path + "/" + DB_FILE, "rw");
-        this.nextPageId = (int) (file.length() / Page.PAGE_SIZE);
+        this(path, Mode.CHANNEL);
     }
 
+    public DiskManager(String path, Mode mode) throws IOException {
+        this(path, mode, DEFAULT_EXTENT_PAGES);
+    }
+
+    public DiskManager(String path, Mode mode, int extentPages) throws IOException {
+        this(path, mode, extentPages, RECORDED_PAGE_SIZE);
+    }
+
+    /**
+     * Opens a database created with {@code pageSize}-byte pages, creating it if it does not exist yet.
+     */
+    public DiskManager(String path, int pageSize) throws IOException {
+        this(path, Mode.CHANNEL, DEFAULT_EXTENT_PAGES, pageSize);
+    }
+
+    /**
+     * @param pageSize page size for a new database – a power of two from {@link #MIN_PAGE_SIZE} to
+     *                 {@link #MAX_PAGE_SIZE} – or {@link #RECORDED_PAGE_SIZE}. An existing database always keeps the
+     *                 size recorded in its header; asking for a different one is an error.
+     */
+    public DiskManager(String path, Mode mode, int extentPages, int pageSize) throws IOException {
+        if (extentPages < 1) throw new IllegalArgumentException("extentPages=" + extentPages);
+        if (pageSize != RECORDED_PAGE_SIZE
+            && (Integer.bitCount(pageSize) != 1 || pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE))
+            throw new IllegalArgumentException("pageSize=" + pageSize);
+        this.mode = mode;
+        this.extentPages = extentPages;
+        this.channel = FileChannel.open(Path.of(path, DB_FILE),
+                                        StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+        this.header = FileChannel.open(Path.of(path, HEADER_FILE),
+                                       StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+
+        ByteBuffer hdr = readHeader();
+        int version = hdr != null ? hdr.getInt(4) : 1;             // a database without a header is of version 1
+        if (version < HEADER_VERSION && channel.size() > 0)
+            throw new IOException(DB_FILE + " holds pages of format version " + version + ", which this version"
+                                  + " cannot read; it needs version " + HEADER_VERSION);
+        int recorded = hdr != null ? hdr.getInt(8) : RECORDED_PAGE_SIZE;
+        if (recorded != RECORDED_PAGE_SIZE && pageSize != RECORDED_PAGE_SIZE && pageSize != recorded)
+            throw new IOException("Database uses " + recorded + "-byte pages, not " + pageSize);
+        this.pageSize = recorded != RECORDED_PAGE_SIZE ? recorded
+                                                       : pageSize != RECORDED_PAGE_SIZE ? pageSize : Page.PAGE_SIZE;
+        this.filePages = (int) ((channel.size() + this.pageSize - 1) / this.pageSize);
+
+        /* a clean close recorded the exact high-water mark; otherwise everything preallocated counts as used */
+        int cleanHwm = hdr != null && hdr.get(16) == 1 ? hdr.getInt(12) : -1;
+        this.nextPageId = new AtomicInteger(cleanHwm >= 0 ? cleanHwm : filePages);
+        writeHeader(false);
+
+        this.fsm = FileChannel.open(Path.of(path, FSM_FILE),
+                                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+        ByteBuffer map = ByteBuffer.allocate((int) fsm.size());
+        while (map.hasRemaining()) {
+            if (fsm.read(map, map.position()) < 0) break;
+        }
+        freePages.or(BitSet.valueOf(map.flip()));
+        anyFree = !freePages.isEmpty();
+    }
+
+    /**
+     * Hands out a page that reads as zeros: a released one if there is any, otherwise the next page of the
+     * preallocated extent.
+     */
     public int allocatePage() throws IOException {
-        int pageId = nextPageId++;
-        writePage(pageId, new byte[Page.PAGE_SIZE]);
+        if (anyFree) {
+            int reused = reuseFreePage();
+            if (reused >= 0) return reused;
+        }
+        int pageId = nextPageId.getAndIncrement();
+        if (pageId >= filePages) extendTo(pageId);
         return pageId;
     }
 
     public void writePage(int pageId, byte[] data) throws IOException {
-        file.seek((long) pageId * Page.PAGE_SIZE);
-        file.write(data);
+        writePage(pageId, ByteBuffer.wrap(data));
     }
 
     public byte[] readPage(int pageId) throws IOException {
-        byte[] data = new byte[Page.PAGE_SIZE];
-        file.seek((long) pageId * Page.PAGE_SIZE);
-        file.readFully(data);
+        byte[] data = new byte[pageSize];
+        readPage(pageId, ByteBuffer.wrap(data));
         return data;
     }
 
+    /**
+     * Reads a page straight into {@code dst} (e.g. an off-heap buffer-pool frame) without an intermediate array.
+     */
+    public void readPage(int pageId, ByteBuffer dst) throws IOException {
+        if (mode == Mode.MMAP) {
+            if (pageId >= nextPageId.get())
+                throw new EOFException("Page " + pageId + " is beyond the end of the file");
+            long pos = (long) pageId * pageSize;
+            dst.put(chunk(pos).slice((int) (pos % MMAP_CHUNK_BYTES), dst.remaining()));
+            return;
+        }
+        long pos = (long) pageId * pageSize;
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, pos);
+            if (n < 0) throw new EOFException("Page " + pageId + " is beyond the end of the file");
+            pos += n;
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of {@code src} as page {@code pageId}.
+     */
+    public void writePage(int pageId, ByteBuffer src) throws IOException {
+        long pos = (long) pageId * pageSize;
+        if (mode == Mode.MMAP) {
+            chunk(pos).put((int) (pos % MMAP_CHUNK_BYTES), src, src.position(), src.remaining());
+            src.position(src.limit());
+            dirtyChunks.add((int) (pos / MMAP_CHUNK_BYTES));
+            return;
+        }
+        while (src.hasRemaining()) {
+            pos += channel.write(src, pos);
+        }
+    }
+
+    /**
+     * Reads {@code dsts.length} consecutive pages starting at {@code firstPageId} with one scattering read, for
+     * read-ahead.
+     */
+    public void readPages(int firstPageId, ByteBuffer[] dsts) throws IOException {
+        if (mode == Mode.MMAP) {                        // no system call to save
+            for (int i = 0; i < dsts.length; i++) readPage(firstPageId + i, dsts[i]);
+            return;
+        }
+        ByteBuffer last = dsts[dsts.length - 1];
+        synchronized (positionLock) {
+            channel.position((long) firstPageId * pageSize);
+            while (last.hasRemaining()) {
+                if (channel.read(dsts) < 0)
+                    throw new EOFException("Pages " + firstPageId + ".." + (firstPageId + dsts.length - 1)
+                                           + " run past the end of the file");
+            }
+        }
+    }
+
+    /**
+     * Writes {@code srcs.length} consecutive pages starting at {@code firstPageId} with one gathering write.
+     */
+    public void writePages(int firstPageId, ByteBuffer[] srcs) throws IOException {
+        if (mode == Mode.MMAP) {
+            for (int i = 0; i < srcs.length; i++) writePage(firstPageId + i, srcs[i]);
+            return;
+        }
+        ByteBuffer last = srcs[srcs.length - 1];
+        synchronized (positionLock) {
+            channel.position((long) firstPageId * pageSize);
+            while (last.hasRemaining()) {
+                channel.write(srcs);
+            }
+        }
+    }
+
+    /**
+     * Forces page writes to stable storage: {@code fsync} of the file, or in {@link Mode#MMAP} mode {@code msync} of
+     * the chunks written since the last call.
+     */
+    public void sync() throws IOException {
+        if (mode == Mode.MMAP) {
+            MappedByteBuffer[] cs = chunks;
+            for (Integer c : dirtyChunks) {
+                dirtyChunks.remove(c);                  // a write after this point re-adds it
+                cs[c].force();
+            }
+        } else {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Gives a page back for reuse. The caller must make sure nothing refers to it any more, including cached copies
+     * in the buffer pool ({@link BufferPool#discardPage(int)}).
+     */
+    public void freePage(int pageId) throws IOException {
+        if (pageId < 0 || pageId >= nextPageId.get()) throw new IllegalArgumentException("page " + pageId);
+        synchronized (freePages) {
+            if (freePages.get(pageId)) throw new IllegalStateException("Page " + pageId + " is already free");
+            freePages.set(pageId);
+            persistFsmByte(pageId);
+            anyFree = true;
+        }
+    }
+
+    public int getFreePageCount() {
+        synchronized (freePages) {
+            return freePages.cardinality();
+        }
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
     public int getNumPages() {
-        return nextPageId;
+        return nextPageId.get();
+    }
+
+    public Mode getMode() {
+        return mode;
     }
 
     public void close() throws IOException {
-        file.close();
+        if (mode == Mode.MMAP) {
+            sync();
+            channel.truncate((long) nextPageId.get() * pageSize);   // drop the unused tail of the last chunk
+        }
+        writeHeader(true);
+        header.close();
+        fsm.close();
+        channel.close();
+    }
+
+    /**
+     * Takes the lowest free page, zeroing it first: it still holds its old contents, which WAL redo may even have
+     * written back since it was freed. The write is not logged; a heap page's new life is ({@link
+     * TransactionManager#formatPage}), so that redo does not replay the old one into it. Returns -1 if the map is
+     * empty.
+     */
+    private int reuseFreePage() throws IOException {
+        int pageId;
+        synchronized (freePages) {
+            pageId = freePages.nextSetBit(0);
+            if (pageId < 0) {
+                anyFree = false;
+                return -1;
+            }
+            writePage(pageId, ByteBuffer.allocate(pageSize));
+            freePages.clear(pageId);
+            persistFsmByte(pageId);
+            anyFree = !freePages.isEmpty();
+        }
+        return pageId;
+    }
+
+    /**
+     * Writes the map byte holding {@code pageId}'s bit. Caller holds the {@link #freePages} lock.
+     */
+    private void persistFsmByte(int pageId) throws IOException {
+        byte b = 0;
+        for (int i = 0; i < 8; i++) {
+            if (freePages.get((pageId & ~7) + i)) b |= (byte) (1 << i);
+        }
+        fsm.write(ByteBuffer.wrap(new byte[]{b}), pageId >>> 3);
+    }
+
+    /**
+     * Grows the file by whole extents until it covers {@code pageId}, each extent with one zero-filled write.
+     */
+    private synchronized void extendTo(int pageId) throws IOException {
+        if (pageId < filePages) return;                         // another allocator got here first
+        ByteBuffer zeros = ByteBuffer.allocateDirect(extentPages * pageSize);
+        int end = filePages;
+        while (end <= pageId) {
+            long pos = (long) end * pageSize;
+            zeros.clear();
+            while (zeros.hasRemaining()) pos += channel.write(zeros, pos);
+            end += extentPages;
+        }
+        filePages = end;
+    }
+
+    /**
+     * The header as written by {@link #writeHeader(boolean)}, or {@code null} for a database that has none yet.
+     */
+    private ByteBuffer readHeader() throws IOException {
+        ByteBuffer hdr = ByteBuffer.allocate(4 * 4 + 1);
+        header.read(hdr, 0);
+        if (hdr.position() < hdr.capacity()) return null;
+        if (hdr.getInt(0) != HEADER_MAGIC)
+            throw new IOException(HEADER_FILE + " is not a database header");
+        return hdr;
+    }
+
+    /**
+     * header = magic | version | pageSize | highWaterMark | clean
+     */
+    private void writeHeader(boolean clean) throws IOException {
+        ByteBuffer hdr = ByteBuffer.allocate(4 * 4 + 1)
+                .putInt(HEADER_MAGIC)
+                .putInt(HEADER_VERSION)
+                .putInt(pageSize)
+                .putInt(nextPageId.get())
+                .put((byte) (clean ? 1 : 0))
+                .flip();
+        while (hdr.hasRemaining()) header.write(hdr, hdr.position());
+        header.force(false);
+    }
+
+    /**
+     * The mapping that holds file offset {@code pos}, mapping further chunks (and so extending the file) on demand.
+     */
+    private MappedByteBuffer chunk(long pos) throws IOException {
+        int c = (int) (pos / MMAP_CHUNK_BYTES);
+        MappedByteBuffer[] cs = chunks;
+        return c < cs.length ? cs[c] : growTo(c + 1)[c];
+    }
+
+    private synchronized MappedByteBuffer[] growTo(int count) throws IOException {
+        MappedByteBuffer[] cs = chunks;
+        if (count <= cs.length) return cs;
+        MappedByteBuffer[] grown = Arrays.copyOf(cs, count);
+        for (int i = cs.length; i < count; i++) {
+            grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * MMAP_CHUNK_BYTES, MMAP_CHUNK_BYTES);
+        }
+        chunks = grown;
+        return grown;
+    }
+
+    /**
+     * How page I/O reaches the file.
+     */
+    public enum Mode {
+        /**
+         * Positional {@code pread}/{@code pwrite} system calls (default).
+         */
+        CHANNEL,
+        /**
+         * Memory-mapped chunks; suited to databases that fit in RAM.
+         */
+        MMAP
     }
 }
@@ -0,0 +1,61 @@
+package edu.mora.db.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Off-heap backing store for buffer-pool frames.
+ * <p>
+ * Memory is reserved up front as a few large direct slabs (at most {@value #MAX_SLAB_BYTES} bytes each, so pools beyond
+ * the 2 GB limit of a single {@link ByteBuffer} still work) and carved into page-sized slots. Frames therefore live
+ * outside the Java heap: the GC never scans or copies them, and disk reads land directly in them. Slots released by
+ * {@link BufferPool#resize(int)} are reused before a new slab is allocated.
+ * <p>
+ * Direct memory is capped by {@code -XX:MaxDirectMemorySize} (defaults to the max heap size); raise it for large
+ * pools.
+ */
+final class FrameArena {
+    static final int MAX_SLAB_BYTES = 1 << 30;
+
+    private final int pageSize;
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final ArrayDeque<ByteBuffer> freeSlots = new ArrayDeque<>();
+
+    FrameArena(int pageSize, int frames) {
+        this.pageSize = pageSize;
+        reserve(frames);
+    }
+
+    /**
+     * Hands out one page-sized slot, reserving another slab if none is free.
+     */
+    synchronized ByteBuffer allocate() {
+        if (freeSlots.isEmpty()) reserve(1);
+        return freeSlots.poll();
+    }
+
+    synchronized void release(ByteBuffer slot) {
+        freeSlots.push(slot);
+    }
+
+    synchronized long reservedBytes() {
+        long n = 0;
+        for (ByteBuffer s : slabs) n += s.capacity();
+        return n;
+    }
+
+    private void reserve(int frames) {
+        int perSlab = Math.max(1, MAX_SLAB_BYTES / pageSize);
+        while (frames > 0) {
+            int n = Math.min(frames, perSlab);
+            ByteBuffer slab = ByteBuffer.allocateDirect(n * pageSize);
+            slabs.add(slab);
+            for (int i = 0; i < n; i++) {
+                freeSlots.add(slab.slice(i * pageSize, pageSize));
+            }
+            frames -= n;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package edu.mora.db.storage;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background thread that makes FAST commits durable.
+ * <p>
+ * Rather than forcing the log on a fixed period, it sleeps until there is something to force and then forces it
+ * <ul>
+ *   <li>at once, when {@link #BACKLOG_BYTES} of log or {@link #BACKLOG_TXS} FAST commits are waiting,</li>
+ *   <li>otherwise after {@link #INTERVAL_MS} – so a lone commit is durable within that – and</li>
+ *   <li>not at all while no FAST commit is waiting: it then only wakes every {@link #IDLE_MS}, to check whether a
+ *   checkpoint is due.</li>
+ * </ul>
+ * A loss window ({@link #setMaxLag(long, int)}) bounds how far durability may trail: a FAST commit that would exceed
+ * it waits for the log to be forced, like a SAFE one. Both triggers shrink with the window so that, in steady state,
+ * commits are rarely throttled.
+ */
+final class Hardener implements AutoCloseable {
+    static final long BACKLOG_BYTES = 256 << 10;
+    static final int BACKLOG_TXS = 64;
+    static final long INTERVAL_MS = 10;
+    static final long IDLE_MS = 1000;
+
+    private final WALManager wal;
+    private final TransactionManager tm;
+    private final Thread thread;
+    private final ArrayDeque<long[]> undurable = new ArrayDeque<>();   // {commit LSN, nanoTime} (guarded by this)
+    private long maxLagNanos = Long.MAX_VALUE;
+    private int maxLagTxs = Integer.MAX_VALUE;
+    private final AtomicLong throttled = new AtomicLong();
+    private volatile boolean closing;
+
+    Hardener(WALManager wal, TransactionManager tm) {
+        this.wal = wal;
+        this.tm = tm;
+        this.thread = new Thread(this::run, "wal-hardener");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Caps the loss window of FAST commits; {@code Long.MAX_VALUE} / {@code Integer.MAX_VALUE} leave it unbounded.
+     */
+    synchronized void setMaxLag(long millis, int transactions) {
+        if (millis <= 0 || transactions <= 0)
+            throw new IllegalArgumentException("maxLag=" + millis + "ms/" + transactions + " txs");
+        maxLagNanos = TimeUnit.MILLISECONDS.toNanos(millis);     // saturates at Long.MAX_VALUE
+        maxLagTxs = transactions;
+        notify();                                   // the wait below may now be too long
+    }
+
+    /**
+     * Registers a FAST commit, returning once it fits in the loss window.
+     */
+    void committed(long lsn) throws IOException {
+        boolean throttle;
+        synchronized (this) {
+            long now = System.nanoTime();
+            pruneDurable();
+            undurable.add(new long[]{lsn, now});
+            throttle = undurable.size() > maxLagTxs || now - undurable.peekFirst()[1] > maxLagNanos;
+            if (undurable.size() == 1 || backlogFull()) notify();
+        }
+        if (throttle) {
+            throttled.incrementAndGet();
+            wal.flush(lsn);                         // joins the hardener's fsync if one is under way
+        }
+    }
+
+    synchronized TransactionManager.DurabilityLag lag() {
+        pruneDurable();
+        long age = undurable.isEmpty() ? 0 : System.nanoTime() - undurable.peekFirst()[1];
+        return new TransactionManager.DurabilityLag(wal.size() - wal.getDurableLsn(), undurable.size(),
+                                                    TimeUnit.NANOSECONDS.toMillis(age));
+    }
+
+    /**
+     * FAST commits that had to wait because the loss window was full.
+     */
+    long getThrottledCommits() {
+        return throttled.get();
+    }
+
+    private void run() {
+        while (!closing) {
+            try {
+                synchronized (this) {
+                    pruneDurable();
+                    if (!backlogFull()) wait(undurable.isEmpty() ? IDLE_MS : intervalMs());
+                }
+                if (closing) return;
+                wal.flush();
+                long sinceCheckpoint = wal.size() - wal.getCheckpointLsn();
+                if (sinceCheckpoint >= TransactionManager.CHECKPOINT_SEGMENTS * wal.getSegmentBytes()) tm.checkpoint();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();                // best-effort; the next round retries (a throw would end it)
+            }
+        }
+    }
+
+    private boolean backlogFull() {
+        return undurable.size() >= Math.min(BACKLOG_TXS, Math.max(1, maxLagTxs / 2))
+                || wal.size() - wal.getDurableLsn() >= BACKLOG_BYTES;
+    }
+
+    private long intervalMs() {
+        return Math.max(1, Math.min(INTERVAL_MS, TimeUnit.NANOSECONDS.toMillis(maxLagNanos) / 2));
+    }
+
+    private void pruneDurable() {
+        long durable = wal.getDurableLsn();
+        while (!undurable.isEmpty() && undurable.peekFirst()[0] <= durable) undurable.poll();
+    }
+
+    /**
+     * Stops the thread without interrupting it, since an interrupt would close the log's file channel mid-fsync.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        synchronized (this) {
+            notify();
+        }
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
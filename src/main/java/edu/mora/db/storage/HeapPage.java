@@ -0,0 +1,129 @@
+package edu.mora.db.storage;
+
+import java.nio.ByteBuffer;
+
+import static java.lang.Integer.BYTES;
+
+/**
+ * Layout of a slotted heap page. {@code Table} reads pages through it, and the {@link TransactionManager} changes them
+ * through it one record at a time, so that a change can be undone without touching anything else on the page.
+ * <pre>
+ *   0        page LSN: the LSN of the last logged change applied to the page
+ *   8        slot count
+ *   12       records, each: length | body
+ *            ... free space ...
+ *   end      slot directory, growing down: slot i holds the offset of its record at end - 4 (i + 1)
+ * </pre>
+ * A record's length is also its extent. Records are never moved, and a deleted record becomes a tombstone that keeps
+ * its extent (its length negated), so every byte of a record belongs to it alone.
+ * <p>
+ * The page LSN travels with the page to disk, so that recovery can tell which logged changes a page image already
+ * holds: it redoes only the records after it.
+ */
+public final class HeapPage {
+    private static final int LSN = 0;
+    private static final int SLOT_COUNT = Long.BYTES;
+    public static final int HEADER_SIZE = SLOT_COUNT + BYTES;    // page LSN | slot count
+
+    private HeapPage() {
+    }
+
+    public static long lsn(ByteBuffer data) {
+        return data.getLong(LSN);
+    }
+
+    public static int slotCount(ByteBuffer data) {
+        return data.getInt(SLOT_COUNT);
+    }
+
+    public static int slotOffset(ByteBuffer data, int slot) {
+        return data.getInt(data.capacity() - BYTES * (slot + 1));
+    }
+
+    /**
+     * The length field of the record at {@code off}: its length, negated for a tombstone.
+     */
+    public static int length(ByteBuffer data, int off) {
+        return data.getInt(off);
+    }
+
+    /**
+     * A copy of the {@code len} body bytes of the record at {@code off}.
+     */
+    public static byte[] body(ByteBuffer data, int off, int len) {
+        byte[] rec = new byte[len];
+        data.get(off + BYTES, rec);
+        return rec;
+    }
+
+    /**
+     * Free space in front of the slot directory.
+     */
+    public static int freeSpace(ByteBuffer data) {
+        int slotDirStart = data.capacity() - BYTES * slotCount(data);
+        return slotDirStart - recordsEnd(data);
+    }
+
+    public static boolean hasLiveRecords(ByteBuffer data) {
+        int slots = slotCount(data);
+        for (int j = 0; j < slots; j++) {
+            if (length(data, slotOffset(data, j)) > 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * First byte after the furthest record. A tombstone stores its length negated, so its bytes still count: records
+     * are never moved, and summing lengths instead would let a new record overlap the one after a tombstone.
+     */
+    static int recordsEnd(ByteBuffer data) {
+        int slots = slotCount(data);
+        int end = HEADER_SIZE;
+        for (int j = 0; j < slots; j++) {
+            int off = slotOffset(data, j);
+            end = Math.max(end, off + BYTES + Math.abs(length(data, off)));
+        }
+        return end;
+    }
+
+    /* ---------- changes (through the transaction manager and recovery only) ---------- */
+
+    static void setLsn(ByteBuffer data, long lsn) {
+        data.putLong(LSN, lsn);
+    }
+
+    /**
+     * Zeroes the page: an empty heap page, whatever it held before.
+     */
+    static void format(ByteBuffer data) {
+        data.put(0, new byte[data.capacity()]);
+    }
+
+    /**
+     * Appends {@code rec} behind the furthest record and gives it a new slot; returns its offset.
+     */
+    static int append(ByteBuffer data, byte[] rec) {
+        int off = recordsEnd(data);
+        insert(data, slotCount(data), off, rec);
+        return off;
+    }
+
+    /**
+     * Writes {@code rec} at {@code off} and points slot {@code slot}, the next free one, at it.
+     */
+    static void insert(ByteBuffer data, int slot, int off, byte[] rec) {
+        data.putInt(off, rec.length);
+        data.put(off + BYTES, rec);
+        data.putInt(data.capacity() - BYTES * (slot + 1), off);
+        data.putInt(SLOT_COUNT, slot + 1);
+    }
+
+    /**
+     * Rewrites the record at {@code off} within its own extent: its length field and, unless {@code body} is null, its
+     * body, which must not be longer than the extent.
+     */
+    static void set(ByteBuffer data, int off, int length, byte[] body) {
+        data.putInt(off, length);
+        if (body != null) data.put(off + BYTES, body);
+    }
+}
@@ -0,0 +1,126 @@
+package edu.mora.db.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous page I/O for the {@link BufferPool}: requests go onto a submission queue served by a small pool of I/O
+ * threads, each issuing positional reads and writes against the {@link DiskManager}, and complete a future. Up to
+ * {@link #getDepth()} requests are therefore on the device at once, where a caller blocking in the disk manager would
+ * only ever keep one there.
+ * <p>
+ * The threads are daemons and exit after a second without work, so an idle pool holds none.
+ */
+final class IOEngine {
+    /**
+     * Requests the device works on concurrently (the I/O thread count).
+     */
+    static final int DEFAULT_DEPTH = 16;
+
+    private final DiskManager disk;
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger peakOutstanding = new AtomicInteger();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    IOEngine(DiskManager disk, int depth) {
+        if (depth < 1) throw new IllegalArgumentException("depth=" + depth);
+        this.disk = disk;
+        AtomicInteger threadNo = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(depth, depth, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "page-io-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Reads {@code dsts.length} consecutive pages starting at {@code firstPageId}, one scattering read for a run.
+     */
+    CompletableFuture<Void> read(int firstPageId, ByteBuffer[] dsts) {
+        reads.incrementAndGet();
+        return submit(() -> {
+            if (dsts.length == 1) disk.readPage(firstPageId, dsts[0]);
+            else disk.readPages(firstPageId, dsts);
+        });
+    }
+
+    /**
+     * Writes {@code srcs.length} consecutive pages starting at {@code firstPageId}, one gathering write for a run.
+     */
+    CompletableFuture<Void> write(int firstPageId, ByteBuffer[] srcs) {
+        writes.incrementAndGet();
+        return submit(() -> {
+            if (srcs.length == 1) disk.writePage(firstPageId, srcs[0]);
+            else disk.writePages(firstPageId, srcs);
+        });
+    }
+
+    int getDepth() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Read requests submitted so far (a run counts once).
+     */
+    long getReads() {
+        return reads.get();
+    }
+
+    long getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * Most requests that were submitted and not yet completed at any one time.
+     */
+    int getPeakOutstanding() {
+        return peakOutstanding.get();
+    }
+
+    /**
+     * Waits for {@code f}, rethrowing the {@link IOException} it failed with.
+     */
+    static void await(CompletableFuture<?> f) throws IOException {
+        try {
+            f.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new IOException(cause);
+        }
+    }
+
+    private CompletableFuture<Void> submit(Request request) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        peakOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+        executor.execute(() -> {
+            Throwable failure = null;
+            try {
+                request.run();
+            } catch (Throwable t) {
+                failure = t;
+            }
+            outstanding.decrementAndGet();
+            if (failure == null) done.complete(null);
+            else done.completeExceptionally(failure);
+        });
+        return done;
+    }
+
+    @FunctionalInterface
+    private interface Request {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,127 @@
+package edu.mora.db.storage;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * LRU-K (O'Neil, O'Neil &amp; Weikum). The victim is the page whose K-th most recent reference lies furthest back;
+ * pages with fewer than K references count as infinitely old and are evicted first, in LRU order. Reference history
+ * of evicted pages is kept for a while so that a page which comes straight back is not treated as new.
+ * <p>
+ * Pages with K references are ordered by their K-th reference stamp in a tree, so a hit on such a page costs
+ * O(log n); victim selection is O(1) amortized from the young list and O(log n) from the tree.
+ */
+final class LRUKPolicy implements ReplacementPolicy {
+    private final int k;
+    private final Map<Page, History> resident = new HashMap<>();
+    private final LinkedHashMap<Page, Boolean> young = new LinkedHashMap<>(16, 0.75f, true); // < K references
+    private final TreeMap<Long, Page> mature = new TreeMap<>();                              // by K-th stamp
+    private final LinkedHashMap<Integer, History> retained = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, History> eldest) {
+            return size() > retainLimit;
+        }
+    };
+    private int retainLimit = 1;
+    private long clock;
+
+    LRUKPolicy(int k) {
+        if (k < 2) throw new IllegalArgumentException("K must be at least 2, use LRU for K=1");
+        this.k = k;
+    }
+
+    @Override
+    public synchronized void onLoad(Page frame) {
+        History h = retained.remove(frame.getPageId());
+        if (h == null) h = new History(k);
+        resident.put(frame, h);
+        if (h.count >= k) {
+            mature.put(h.kth(), frame);
+        } else {
+            young.put(frame, Boolean.TRUE);
+        }
+        reference(frame, h);
+    }
+
+    @Override
+    public synchronized void onAccess(Page frame) {
+        History h = resident.get(frame);
+        if (h != null) reference(frame, h);
+    }
+
+    @Override
+    public synchronized Page evict() {
+        for (Iterator<Page> it = young.keySet().iterator(); it.hasNext(); ) {
+            Page f = it.next();
+            if (f.tryClaim()) {
+                it.remove();
+                retire(f);
+                return f;
+            }
+        }
+        for (Iterator<Page> it = mature.values().iterator(); it.hasNext(); ) {
+            Page f = it.next();
+            if (f.tryClaim()) {
+                it.remove();
+                retire(f);
+                return f;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void remove(Page frame) {
+        History h = resident.remove(frame);
+        if (h == null) return;
+        young.remove(frame);
+        if (h.count >= k) mature.remove(h.kth());
+    }
+
+    @Override
+    public synchronized void resize(int frames) {
+        retainLimit = Math.max(1, frames);
+    }
+
+    private void reference(Page frame, History h) {
+        boolean wasMature = h.count >= k;
+        if (wasMature) mature.remove(h.kth());
+        h.record(++clock);
+        if (h.count >= k) {
+            if (!wasMature) young.remove(frame);
+            mature.put(h.kth(), frame);
+        } else {
+            young.get(frame);                   // bump within the young list
+        }
+    }
+
+    private void retire(Page f) {
+        History h = resident.remove(f);
+        if (h != null) retained.put(f.getPageId(), h);
+    }
+
+    /**
+     * The last K reference stamps of one page, newest first.
+     */
+    private static final class History {
+        final long[] stamps;
+        int count;
+
+        History(int k) {
+            stamps = new long[k];
+        }
+
+        void record(long stamp) {
+            System.arraycopy(stamps, 0, stamps, 1, stamps.length - 1);
+            stamps[0] = stamp;
+            if (count < stamps.length) count++;
+        }
+
+        long kth() {
+            return stamps[stamps.length - 1];
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package edu.mora.db.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Plain LRU: victims are taken from the least recently used end, skipping pinned frames.
+ */
+final class LRUPolicy implements ReplacementPolicy {
+    // access-order for LRU tracking
+    private final LinkedHashMap<Page, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public synchronized void onLoad(Page frame) {
+        order.put(frame, Boolean.TRUE);
+    }
+
+    @Override
+    public synchronized void onAccess(Page frame) {
+        order.get(frame);                       // moves it to the MRU end
+    }
+
+    @Override
+    public synchronized Page evict() {
+        for (Iterator<Page> it = order.keySet().iterator(); it.hasNext(); ) {
+            Page f = it.next();
+            if (f.tryClaim()) {
+                it.remove();
+                return f;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void remove(Page frame) {
+        order.remove(frame);
+    }
+}
@@ -0,0 +1,178 @@
+package edu.mora.db.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row lock table for strict two-phase locking: a transaction acquires shared or exclusive locks on keys (usually
+ * {@link RecordId}s) as it goes and releases them all at once when it ends ({@link #releaseAll(long)}).
+ * <p>
+ * The table is split into {@value #STRIPES} stripes, each guarded by its own monitor, so transactions locking different
+ * rows rarely touch the same monitor. Locks are re-entrant, and a sole shared holder may upgrade to exclusive.
+ * <p>
+ * A blocked transaction checks the waits-for graph every {@value #DEADLOCK_CHECK_MS} ms and gives up with a
+ * {@link DeadlockException} if it is part of a cycle, or once it has waited longer than the lock timeout. The graph is
+ * read one stripe at a time, so a check sees a slightly stale picture; the timeout is the backstop.
+ */
+public final class LockManager {
+    public enum Mode {SHARED, EXCLUSIVE}
+
+    static final int STRIPES = 64;
+    static final long DEADLOCK_CHECK_MS = 50;
+    public static final long DEFAULT_TIMEOUT_MS = 5_000;
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final Map<Long, Set<Object>> held = new ConcurrentHashMap<>();     // tx → keys it holds
+    private final Map<Long, Object> waitsFor = new ConcurrentHashMap<>();      // tx → key it is blocked on
+    private volatile long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MS);
+
+    public LockManager() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+    }
+
+    /**
+     * Blocks until {@code tx} holds {@code key} in {@code mode} (or a stronger one).
+     *
+     * @throws DeadlockException if waiting would deadlock or has timed out; the caller should roll back
+     */
+    public void lock(long tx, Object key, Mode mode) {
+        Stripe s = stripeFor(key);
+        long deadline = System.nanoTime() + timeoutNanos;
+        try {
+            for (; ; ) {
+                synchronized (s) {
+                    if (s.tryAcquire(tx, key, mode)) break;
+                    waitsFor.put(tx, key);
+                    long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    s.wait(Math.max(1, Math.min(DEADLOCK_CHECK_MS, left)));
+                    if (s.tryAcquire(tx, key, mode)) break;
+                }
+                if (deadlocked(tx, key))
+                    throw new DeadlockException("Transaction " + tx + " would deadlock waiting for " + key);
+                if (System.nanoTime() - deadline >= 0)
+                    throw new DeadlockException("Transaction " + tx + " timed out waiting for " + key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DeadlockException("Interrupted while waiting for " + key);
+        } finally {
+            waitsFor.remove(tx);
+        }
+        held.computeIfAbsent(tx, t -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    /**
+     * Releases every lock of {@code tx} and wakes the transactions waiting for them.
+     */
+    public void releaseAll(long tx) {
+        Set<Object> keys = held.remove(tx);
+        if (keys == null) return;
+        for (Object key : keys) {
+            Stripe s = stripeFor(key);
+            synchronized (s) {
+                s.release(tx, key);
+                s.notifyAll();
+            }
+        }
+    }
+
+    public void setTimeout(long millis) {
+        if (millis <= 0) throw new IllegalArgumentException("timeout=" + millis + "ms");
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Whether {@code tx} holds {@code key} in {@code mode} or a stronger one.
+     */
+    public boolean holds(long tx, Object key, Mode mode) {
+        Stripe s = stripeFor(key);
+        synchronized (s) {
+            Entry e = s.table.get(key);
+            return e != null && (e.owner == tx || (mode == Mode.SHARED && e.sharers.contains(tx)));
+        }
+    }
+
+    /* ---------- deadlock detection ---------- */
+
+    /**
+     * Follows the waits-for graph from the holders of {@code key}; a path back to {@code tx} is a cycle.
+     */
+    private boolean deadlocked(long tx, Object key) {
+        Set<Long> seen = new HashSet<>();
+        ArrayDeque<Long> todo = new ArrayDeque<>();
+        for (long h : holders(key)) {
+            if (h != tx) todo.add(h);               // our own shared lock only blocks an upgrade by others
+        }
+        while (!todo.isEmpty()) {
+            long h = todo.poll();
+            if (h == tx) return true;
+            if (!seen.add(h)) continue;
+            Object next = waitsFor.get(h);
+            if (next != null) todo.addAll(holders(next));
+        }
+        return false;
+    }
+
+    private List<Long> holders(Object key) {
+        Stripe s = stripeFor(key);
+        synchronized (s) {
+            Entry e = s.table.get(key);
+            List<Long> out = new ArrayList<>();
+            if (e == null) return out;
+            if (e.owner != NONE) out.add(e.owner);
+            out.addAll(e.sharers);
+            return out;
+        }
+    }
+
+    private Stripe stripeFor(Object key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /* ---------- lock table ---------- */
+
+    private static final class Entry {
+        long owner = NONE;                          // exclusive holder
+        final Set<Long> sharers = new HashSet<>();
+    }
+
+    /**
+     * One stripe of the table; only touched while holding its monitor.
+     */
+    private static final class Stripe {
+        final Map<Object, Entry> table = new HashMap<>();
+
+        boolean tryAcquire(long tx, Object key, Mode mode) {
+            Entry e = table.computeIfAbsent(key, k -> new Entry());
+            if (e.owner == tx) return true;
+            if (e.owner != NONE) return false;
+            if (mode == Mode.SHARED) {
+                e.sharers.add(tx);
+                return true;
+            }
+            if (e.sharers.isEmpty() || (e.sharers.size() == 1 && e.sharers.contains(tx))) {
+                e.sharers.remove(tx);               // upgraded
+                e.owner = tx;
+                return true;
+            }
+            return false;
+        }
+
+        void release(long tx, Object key) {
+            Entry e = table.get(key);
+            if (e == null) return;
+            if (e.owner == tx) e.owner = NONE;
+            e.sharers.remove(tx);
+            if (e.owner == NONE && e.sharers.isEmpty()) table.remove(key);
+        }
+    }
+}
@@ -1,14 +1,46 @@
 package edu.mora.db.storage;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A buffer-pool frame: a lightweight view over one page-sized slot of the pool's off-heap {@link FrameArena}. Frames
+ * are reused for different pages over their lifetime, so {@link #getPageId()} reports the page currently held.
+ * <p>
+ * {@link #getBuffer()} exposes the slot for absolute-index access ({@code getInt(off)}, {@code put(off, bytes)}, ...);
+ * its position and limit are shared and must not be relied on.
+ * <p>
+ * A frame may only be used while pinned (see {@link BufferPool#fetchPage(int)}); the pool never evicts a pinned frame.
+ * Readers additionally take the {@link #readLatch()} and mutators the {@link #writeLatch()}; the pool takes the read
+ * latch while writing a page back and the write latch while replacing its contents.
+ */
 public class Page {
+    /**
+     * Page size of a newly created database; an existing one keeps the size it was created with (see
+     * {@link DiskManager#getPageSize()}).
+     */
     public static final int PAGE_SIZE = 4096;
-    private final int pageId;
-    private final byte[] data;
-    private boolean dirty;
+    static final int INVALID_PAGE_ID = -1;
+    private static final CompletableFuture<Void> LOADED = CompletableFuture.completedFuture(null);
 
-    public Page(int pageId) {
-        this.pageId = pageId;
-        this.data = new byte[PAGE_SIZE];
+    private final ByteBuffer data;
+    private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+    private final AtomicInteger pinCount = new AtomicInteger();   // -1 while the pool is evicting the frame
+    private volatile int pageId;
+    private volatile boolean dirty;
+    private volatile long dirtySince;           // System.nanoTime() of the clean → dirty transition
+    private volatile boolean referenced;         // reference bit for ClockPolicy
+    private volatile CompletableFuture<Void> loading = LOADED;
+    private volatile long pageLsn;               // LSN of the last logged change; 0 if none since the read
+    private volatile long recLsn;                // LSN of the first logged change since the page was last clean
+    private volatile boolean writing;            // marked clean, but its write-back has not completed yet
+
+    Page(ByteBuffer slot) {
+        this.pageId = INVALID_PAGE_ID;
+        this.data = slot;
         this.dirty = false;
     }
 
@@ -16,16 +48,146 @@ public class Page {
         return pageId;
     }
 
-    public byte[] getData() {
+    public ByteBuffer getBuffer() {
         return data;
     }
 
+    /**
+     * Copies the page contents onto the heap (for before/after images).
+     */
+    public byte[] snapshot() {
+        byte[] copy = new byte[data.capacity()];
+        data.get(0, copy);
+        return copy;
+    }
+
     public boolean isDirty() {
         return dirty;
     }
 
     public void markDirty(boolean dirty) {
+        if (dirty && !this.dirty) dirtySince = System.nanoTime();
         this.dirty = dirty;
     }
-}
 
+    /**
+     * LSN of the log record describing the latest change to this page; the page may not be written back before the
+     * log is durable up to it.
+     */
+    public long getPageLsn() {
+        return pageLsn;
+    }
+
+    public int getPinCount() {
+        return Math.max(0, pinCount.get());
+    }
+
+    public Lock readLatch() {
+        return latch.readLock();
+    }
+
+    public Lock writeLatch() {
+        return latch.writeLock();
+    }
+
+    /* ---------- frame bookkeeping (BufferPool only) ---------- */
+
+    /**
+     * A private cursor over the slot for channel I/O, which moves position and limit.
+     */
+    ByteBuffer ioBuffer() {
+        return data.duplicate().clear();
+    }
+
+    ByteBuffer slot() {
+        return data;
+    }
+
+    void setPageId(int pageId) {
+        this.pageId = pageId;
+    }
+
+    /**
+     * The read that fills this frame with {@link #getPageId()}; the contents are only valid once it has completed
+     * normally. A frame is mapped while its read is still in flight, so that concurrent misses share it.
+     */
+    CompletableFuture<Void> loading() {
+        return loading;
+    }
+
+    void setLoading(CompletableFuture<Void> read) {
+        this.loading = read;
+    }
+
+    void setPageLsn(long lsn) {
+        this.pageLsn = lsn;
+    }
+
+    /**
+     * LSN of the first logged change that made the page dirty; redo of this page can start there. Only meaningful
+     * while the page is dirty, and 0 if it was dirtied without being logged.
+     */
+    long getRecLsn() {
+        return recLsn;
+    }
+
+    void setRecLsn(long lsn) {
+        this.recLsn = lsn;
+    }
+
+    /**
+     * Whether an asynchronous write-back of the page is still in flight; it was marked clean when it was submitted.
+     */
+    boolean isWriting() {
+        return writing;
+    }
+
+    void setWriting(boolean writing) {
+        this.writing = writing;
+    }
+
+    /**
+     * Adds a pin unless the frame is being evicted.
+     */
+    boolean tryPin() {
+        for (; ; ) {
+            int c = pinCount.get();
+            if (c < 0) return false;
+            if (pinCount.compareAndSet(c, c + 1)) return true;
+        }
+    }
+
+    void unpin() {
+        for (; ; ) {
+            int c = pinCount.get();
+            if (c <= 0) throw new IllegalStateException("Page " + pageId + " is not pinned");
+            if (pinCount.compareAndSet(c, c - 1)) return;
+        }
+    }
+
+    /**
+     * Claims an unpinned frame for eviction; hits cannot pin it until {@link #release(int)} is called.
+     */
+    boolean tryClaim() {
+        return pinCount.compareAndSet(0, -1);
+    }
+
+    void release(int pins) {
+        pinCount.set(pins);
+    }
+
+    /**
+     * When the page last went from clean to dirty; only meaningful while {@link #isDirty()}.
+     */
+    long dirtySince() {
+        return dirtySince;
+    }
+
+    boolean isReferenced() {
+        return referenced;
+    }
+
+    void setReferenced(boolean referenced) {
+        this.referenced = referenced;
+    }
+}
@@ -0,0 +1,114 @@
+package edu.mora.db.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Background writer that keeps the buffer pool's dirty set small, so that misses find clean victims and do not have to
+ * write pages back themselves.
+ * <p>
+ * Every round it snapshots the dirty-page table ({@link BufferPool#dirtyFrames()}) and writes back a bounded number of
+ * pages, oldest first: pages that have been dirty for longer than {@link #MAX_DIRTY_AGE_NANOS} go ahead of everything
+ * else, then unpinned pages; pinned pages that are not yet overdue are left alone, since they are about to be
+ * re-dirtied anyway. The per-round budget grows with
+ * <ul>
+ *   <li>WAL growth since the last round – roughly the rate at which pages are being dirtied, and</li>
+ *   <li>the shortfall of clean, unpinned frames below the free-frame target.</li>
+ * </ul>
+ */
+final class PageCleaner implements AutoCloseable {
+    static final long PERIOD_MS = 10;
+    static final int MIN_PAGES_PER_ROUND = 4;
+    static final long MAX_DIRTY_AGE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final BufferPool pool;
+    private final LongSupplier walBytes;
+    private final int freeTarget;                   // clean frames we try to keep available
+    private final int maxPagesPerRound;
+    private final ScheduledExecutorService exec =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "page-cleaner");
+                t.setDaemon(true);
+                return t;
+            });
+    private long lastWalBytes;
+
+    PageCleaner(BufferPool pool, LongSupplier walBytes) {
+        this.pool = pool;
+        this.walBytes = walBytes;
+        int capacity = pool.getCapacity();
+        this.freeTarget = Math.max(1, capacity / 8);
+        this.maxPagesPerRound = Math.max(MIN_PAGES_PER_ROUND, capacity / 4);
+        this.lastWalBytes = walBytes.getAsLong();
+    }
+
+    void start() {
+        exec.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();                // best-effort; the next round retries (a throw would cancel it)
+            }
+        }, PERIOD_MS, PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One cleaning round.
+     *
+     * @return the number of pages written back
+     */
+    int runOnce() throws IOException {
+        long now = System.nanoTime();
+        List<Page> dirty = pool.dirtyFrames();
+        if (dirty.isEmpty()) {
+            lastWalBytes = walBytes.getAsLong();
+            return 0;
+        }
+        /* writers keep changing dirtySince: sort on one reading of it, or the order is not consistent */
+        List<Candidate> candidates = new ArrayList<>(dirty.size());
+        for (Page p : dirty) {
+            long since = p.dirtySince();
+            boolean overdue = now - since >= MAX_DIRTY_AGE_NANOS;
+            if (p.getPinCount() == 0 || overdue) candidates.add(new Candidate(p, since, overdue));
+        }
+        candidates.sort(Comparator.comparing((Candidate c) -> !c.overdue()).thenComparingLong(Candidate::since));
+
+        int budget = Math.min(budget(), candidates.size());
+        List<Page> batch = new ArrayList<>(budget);
+        for (Candidate c : candidates.subList(0, budget)) batch.add(c.frame());
+        pool.flushFrames(batch);                        // adjacent pages are coalesced into gathering writes
+        return budget;
+    }
+
+    private int budget() {
+        long wal = walBytes.getAsLong();
+        long growth = Math.max(0, wal - lastWalBytes);
+        lastWalBytes = wal;
+
+        long pages = MIN_PAGES_PER_ROUND + growth / pool.getPageSize();
+        pages += Math.max(0, freeTarget - pool.cleanFrameCount());
+        return (int) Math.min(pages, maxPagesPerRound);
+    }
+
+    private record Candidate(Page frame, long since, boolean overdue) {
+    }
+
+    /**
+     * Stops after the current round. Does not interrupt it: an interrupt during a write-back's log force would close
+     * the log's file channel.
+     */
+    @Override
+    public void close() {
+        exec.shutdown();
+        try {
+            exec.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
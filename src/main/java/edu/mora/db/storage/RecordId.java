@@ -19,4 +19,19 @@ public class RecordId {
     public int getOffset() {
         return offset;
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof RecordId r && r.pageId == pageId && r.offset == offset;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * pageId + offset;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + pageId + "," + offset + ")";
+    }
+}
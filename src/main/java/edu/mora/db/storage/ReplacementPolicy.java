@@ -0,0 +1,70 @@
+package edu.mora.db.storage;
+
+/**
+ * Chooses which resident frame of a {@link BufferPool} shard to evict on a miss.
+ * <p>
+ * Each shard owns one policy instance. {@link #onLoad}, {@link #evict} and {@link #remove} are only called under the
+ * shard lock; {@link #onAccess} is called on the lock-free hit path and must be safe against the others.
+ */
+public interface ReplacementPolicy {
+
+    static ReplacementPolicy create(Kind kind, int frames) {
+        ReplacementPolicy p = switch (kind) {
+            case LRU -> new LRUPolicy();
+            case CLOCK -> new ClockPolicy();
+            case TWO_Q -> new TwoQueuePolicy();
+            case LRU_K -> new LRUKPolicy(2);
+        };
+        p.resize(frames);
+        return p;
+    }
+
+    /**
+     * A page was just read into {@code frame}.
+     */
+    void onLoad(Page frame);
+
+    /**
+     * {@code frame} was hit (it is pinned by the caller).
+     */
+    void onAccess(Page frame);
+
+    /**
+     * Picks an unpinned frame, claims it with {@link Page#tryClaim()} and stops tracking it. The pool follows up with
+     * either {@link #onLoad} (frame reused) or {@link #remove} (frame dropped).
+     *
+     * @return the claimed frame, or {@code null} if every tracked frame is pinned
+     */
+    Page evict();
+
+    /**
+     * Forgets {@code frame}; a no-op if it is not tracked.
+     */
+    void remove(Page frame);
+
+    /**
+     * The shard now has {@code frames} frames; policies with size-dependent tuning recompute it.
+     */
+    default void resize(int frames) {
+    }
+
+    enum Kind {
+        /**
+         * Exact least-recently-used order. Hits take a short per-shard lock.
+         */
+        LRU,
+        /**
+         * Second-chance sweep over a ring of frames. Hits only set a reference bit and never lock.
+         */
+        CLOCK,
+        /**
+         * 2Q: first-time pages go through a FIFO and only re-referenced pages reach the main LRU, so one large scan
+         * cannot flush the hot set.
+         */
+        TWO_Q,
+        /**
+         * LRU-2: evicts the page whose second most recent reference is oldest; pages referenced only once go first.
+         */
+        LRU_K
+    }
+}
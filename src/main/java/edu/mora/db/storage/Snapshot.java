@@ -0,0 +1,63 @@
+package edu.mora.db.storage;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A consistent read view: sees exactly the transactions that had committed when it was taken
+ * ({@link TransactionManager#snapshot()}). Readers holding one take no row locks and never block writers; they step
+ * back through the {@link VersionStore} past changes made by anyone else.
+ * <p>
+ * Close it when done, so that the versions it keeps alive can be pruned.
+ */
+public final class Snapshot implements AutoCloseable {
+    private final TransactionManager owner;
+    private final VersionStore versions;
+    private final long xmax;                        // first transaction id not yet begun
+    private final Set<Long> active;                 // begun but not finished
+    private final long xmin;                        // oldest transaction this snapshot may not see
+
+    Snapshot(TransactionManager owner, VersionStore versions, long xmax, Set<Long> active) {
+        this.owner = owner;
+        this.versions = versions;
+        this.xmax = xmax;
+        this.active = active;
+        long min = xmax;
+        for (long tx : active) min = Math.min(min, tx);
+        this.xmin = min;
+    }
+
+    /**
+     * Whether changes by {@code tx} are visible: it had committed when the snapshot was taken.
+     */
+    public boolean sees(long tx) {
+        return tx < xmax && !active.contains(tx);
+    }
+
+    /**
+     * Whether any row of the page may need {@link #resolve(int, int, byte[])}; if not, the page can be read as is.
+     */
+    public boolean hasVersions(int pageId) {
+        return versions.page(pageId) != null;
+    }
+
+    /**
+     * The row's bytes as this snapshot sees them, given its bytes on the page ({@code null} for a tombstone); null if
+     * the row does not exist in the snapshot. The caller holds the page's read latch.
+     */
+    public byte[] resolve(int pageId, int offset, byte[] current) {
+        Map<Integer, VersionStore.Version> rows = versions.page(pageId);
+        VersionStore.Version v = rows == null ? null : rows.get(offset);
+        for (; v != null && !sees(v.writer); v = v.older) current = v.before;
+        return current;
+    }
+
+    long xmin() {
+        return xmin;
+    }
+
+    @Override
+    public void close() {
+        owner.release(this);
+    }
+}
@@ -1,9 +1,13 @@
 package edu.mora.db.storage;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -11,109 +15,382 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * Transaction manager that now supports two commit flavours: – SAFE  (default) waits for WAL fsync + dirty-page flush.
- * – FAST  returns immediately; a background “hardener” thread takes care of durability eventually.
+ * – FAST  returns immediately; a background {@link Hardener} thread takes care of durability eventually, within a
+ * loss window that {@link #setMaxDurabilityLag(long, int)} can bound.
+ * <p>
+ * Isolation between writers comes from strict two-phase locking on rows: {@code Table} takes row locks through
+ * {@link #lock(long, Object, LockManager.Mode)} and they are all released when the transaction commits or rolls back.
+ * Readers take no locks at all: they read through a {@link #snapshot()}, which sees the rows as they were when it was
+ * taken, from the undo chains writers leave in a {@link VersionStore}. A background pruner drops the entries no open
+ * or future snapshot can need, every {@value #PRUNE_PERIOD_MS} ms.
+ * <p>
+ * Writers change {@link HeapPage heap pages} through {@link #insertRecord}, {@link #updateRecord} and
+ * {@link #deleteRecord}, one record at a time. Each change is logged in terms of that record, versioned for
+ * snapshots, and remembered so that a rollback can undo it logically: it only ever restores the record's own bytes,
+ * never the page's slot count or slot directory, which other transactions may have changed since. A rollback logs
+ * what it restores as compensating changes, so the log always describes the pages as they are.
+ * <p>
+ * Dirty pages are written back incrementally by a {@link PageCleaner} rather than by the hardener. Updates are only
+ * appended to the log; the buffer pool forces it up to a page's LSN before writing that page back, so the log is
+ * fsynced at commit (SAFE), by the hardener (FAST) and on write-back, never per update.
+ * <p>
+ * The hardener also takes a {@link #checkpoint()} whenever the log has grown by {@value #CHECKPOINT_SEGMENTS} segments
+ * since the last one, which lets the WAL delete the segments recovery would no longer read. Checkpoints are fuzzy:
+ * they only record which pages are dirty, so the redo point advances as the cleaner writes the oldest ones back.
  */
 public class TransactionManager {
+    static final int CHECKPOINT_SEGMENTS = 2;
+    static final long PRUNE_PERIOD_MS = 100;
 
     private final WALManager wal;
     private final BufferPool pool;
     private final DiskManager disk;
 
-    private final Map<Long, List<UpdateRecord>> updates = new ConcurrentHashMap<>();
-    /* ───── background hardener ──────────────── */
-    private final ScheduledExecutorService hardener =
+    private final Map<Long, List<Undo>> undo = new ConcurrentHashMap<>();          // active tx → its changes
+    private final Map<Long, Long> beginLsns = new ConcurrentHashMap<>();   // active tx → LSN of its BEGIN
+    private final LockManager locks = new LockManager();
+    /* ───── multi-versioning ──────────────────── */
+    private final VersionStore versions = new VersionStore();
+    private final Set<Snapshot> snapshots = ConcurrentHashMap.newKeySet();           // open ones
+    private final ScheduledExecutorService pruner =
             Executors.newSingleThreadScheduledExecutor(r -> {
-                Thread t = new Thread(r, "wal-hardener");
+                Thread t = new Thread(r, "version-pruner");
                 t.setDaemon(true);
                 return t;
             });
+    /* ───── background hardener ──────────────── */
+    private final Hardener hardener;
+    private final PageCleaner cleaner;
     private long nextTxId = 1;
 
     public TransactionManager(WALManager wal, BufferPool pool, DiskManager disk) {
         this.wal = wal;
         this.pool = pool;
         this.disk = disk;
+        pool.setWriteAheadLog(wal);
+
+        // the hardener forces the WAL for FAST commits; pages are left to the cleaner
+        this.hardener = new Hardener(wal, this);
+        hardener.start();
+
+        this.cleaner = new PageCleaner(pool, wal::size);
+        cleaner.start();
 
-        // every 10 ms force WAL + dirty pages to disk
-        hardener.scheduleAtFixedRate(() -> {
+        pruner.scheduleWithFixedDelay(() -> {
             try {
-                wal.flush();
-                pool.flushAll();
-            } catch (IOException e) {
-                // best-effort; print once per failure kind
-                e.printStackTrace();
+                pruneVersions();
+            } catch (RuntimeException e) {
+                e.printStackTrace();                // best-effort; the next round retries (a throw would cancel it)
             }
-        }, 10, 10, TimeUnit.MILLISECONDS);
+        }, PRUNE_PERIOD_MS, PRUNE_PERIOD_MS, TimeUnit.MILLISECONDS);
     }
 
     /* ──────────────────────────────── TX API ── */
     public synchronized long begin() throws IOException {
         long id = nextTxId++;
-        wal.logBegin(id);
-        updates.put(id, new ArrayList<>());
+        beginLsns.put(id, wal.logBegin(id));
+        undo.put(id, new ArrayList<>());
         return id;
     }
 
     /**
-     * Called by Table AFTER it has modified the page in memory.
+     * Transactions begun but not yet committed or rolled back.
+     */
+    public int activeTransactions() {
+        return undo.size();
+    }
+
+    /* ---------- record changes ---------- */
+
+    /**
+     * Starts a page's life as an empty heap page, whatever it held before: zeroes it and logs that, so that redo does
+     * not replay an earlier life of the page into this one. The caller holds the page's write latch; nobody else may
+     * know the page yet.
+     */
+    public void formatPage(Page p) throws IOException {
+        HeapPage.format(p.getBuffer());
+        long lsn = wal.logFormat(p.getPageId());
+        HeapPage.setLsn(p.getBuffer(), lsn);
+        pool.markDirty(p.getPageId(), lsn);
+    }
+
+    /**
+     * Appends {@code rec} to a heap page and returns its offset. The caller holds the page's write latch and has made
+     * sure the record fits ({@link HeapPage#freeSpace}).
      */
-    public void recordPageUpdate(long txId, int pageId,
-                                 byte[] before, byte[] after) throws IOException {
-        wal.logUpdate(txId, pageId, before, after);
-        wal.flush();                           // write-ahead rule
-        pool.markDirty(pageId, true);          // page is already dirty
-        updates.get(txId).add(new UpdateRecord(pageId, before));
+    public int insertRecord(long txId, Page p, byte[] rec) throws IOException {
+        ByteBuffer data = p.getBuffer();
+        int off = HeapPage.append(data, rec);
+        long lsn = wal.logInsert(txId, p.getPageId(), HeapPage.slotCount(data) - 1, off, rec);
+        changed(txId, p, lsn, new Undo(p.getPageId(), off, -rec.length, null), null);   // undone: a tombstone
+        return off;
+    }
+
+    /**
+     * Rewrites the live record at {@code off} in place. The caller holds the record's exclusive lock and the page's
+     * write latch; {@code rec} must fit the record's extent, which the record keeps (the rest is zero-filled).
+     */
+    public void updateRecord(long txId, Page p, int off, byte[] rec) throws IOException {
+        ByteBuffer data = p.getBuffer();
+        int len = HeapPage.length(data, off);
+        if (len <= 0) throw new IllegalStateException("Cannot update deleted tuple");
+        if (rec.length > len) throw new IllegalArgumentException("Record of " + rec.length + " bytes exceeds " + len);
+        byte[] old = HeapPage.body(data, off, len), now = Arrays.copyOf(rec, len);
+        HeapPage.set(data, off, len, now);
+        long lsn = wal.logUpdate(txId, p.getPageId(), off, len, old, len, now);
+        changed(txId, p, lsn, new Undo(p.getPageId(), off, len, old), old);
+    }
+
+    /**
+     * Turns the live record at {@code off} into a tombstone. The caller holds the record's exclusive lock and the
+     * page's write latch.
+     */
+    public void deleteRecord(long txId, Page p, int off) throws IOException {
+        ByteBuffer data = p.getBuffer();
+        int len = HeapPage.length(data, off);
+        if (len <= 0) throw new IllegalStateException("Tuple already deleted");
+        byte[] old = HeapPage.body(data, off, len);
+        HeapPage.set(data, off, -len, null);            // keeps its extent
+        long lsn = wal.logUpdate(txId, p.getPageId(), off, len, null, -len, null);
+        changed(txId, p, lsn, new Undo(p.getPageId(), off, len, null), old);
+    }
+
+    /**
+     * Stamps {@code p} with the LSN of the change just made to it, and keeps the change's undo and, for snapshots
+     * that must not see it, the record's previous bytes ({@code null} if it did not exist).
+     */
+    private void changed(long txId, Page p, long lsn, Undo u, byte[] previous) {
+        HeapPage.setLsn(p.getBuffer(), lsn);
+        pool.markDirty(p.getPageId(), lsn);     // write-back forces the log up to here first
+        versions.record(txId, p.getPageId(), u.offset(), previous);
+        undo.get(txId).add(u);
     }
 
     /* ---------- commit paths ---------- */
-    public void commit(long txId) throws IOException {
-        commit(txId, /*fast=*/false);
+    public long commit(long txId) throws IOException {
+        return commit(txId, /*fast=*/false);
     }
 
     /**
      * @param fast true  →  FAST commit (return before fsync) false →  SAFE commit (fsync + page flush synchronous)
+     * @return the commit's LSN; a FAST commit is durable once {@link #whenDurable(long)} of it completes
      */
-    public void commit(long txId, boolean fast) throws IOException {
-        wal.logCommit(txId);
+    public long commit(long txId, boolean fast) throws IOException {
+        long lsn = wal.logCommit(txId);
 
         if (!fast) {                    // SAFE path
-            wal.flush();
+            wal.flush(lsn);             // group commit: shares the fsync with concurrent committers
             pool.flushAll();
+        } else {
+            hardener.committed(lsn);    // waits only if the loss window is full
         }
-        updates.remove(txId);           // forget before-images
+        undo.remove(txId);              // its versions stay until the pruner finds every snapshot sees past them
+        end(txId);                      // visible to snapshots from now on
+        locks.releaseAll(txId);         // once the commit is logged: a later writer's commit follows ours
+        return lsn;
     }
 
-    public void rollback(long txId) throws IOException {
-        wal.logAbort(txId);
+    /**
+     * Completes once the hardener (or any other flush) has made the log durable up to {@code lsn}, typically a FAST
+     * commit's. Lets callers acknowledge FAST commits lazily, in batches, without forcing the log themselves.
+     */
+    public CompletableFuture<Long> whenDurable(long lsn) {
+        return wal.whenDurable(lsn);
+    }
 
-        List<UpdateRecord> list = updates.get(txId);
+    /**
+     * LSN up to which the log is on disk: every transaction whose commit LSN is at most this is durable.
+     */
+    public long getDurableLsn() {
+        return wal.getDurableLsn();
+    }
+
+    /**
+     * Bounds the loss window of FAST commits: at most {@code transactions} of them, the oldest at most {@code millis}
+     * old, may be waiting to become durable. A FAST commit that would exceed it waits for the log to be forced.
+     * Unbounded by default.
+     */
+    public void setMaxDurabilityLag(long millis, int transactions) {
+        hardener.setMaxLag(millis, transactions);
+    }
+
+    /**
+     * How far durability currently trails the commits.
+     */
+    public DurabilityLag getDurabilityLag() {
+        return hardener.lag();
+    }
+
+    /**
+     * FAST commits so far that waited because the loss window was full.
+     */
+    public long getThrottledCommits() {
+        return hardener.getThrottledCommits();
+    }
+
+    /**
+     * Undoes the transaction's changes, newest first, each logged as a compensating change of its own, and then logs
+     * its ABORT. Neither is forced: if the ABORT is lost in a crash, recovery rolls the transaction back again.
+     */
+    public void rollback(long txId) throws IOException {
+        List<Undo> list = undo.get(txId);
         if (list != null) {
             for (int i = list.size() - 1; i >= 0; i--) {
-                UpdateRecord r = list.get(i);
-                // restore before-image both in buffer and on disk
-                Page p = pool.getPage(r.pageId);
-                System.arraycopy(r.before, 0, p.getData(), 0, Page.PAGE_SIZE);
-                pool.markDirty(r.pageId, true);
-                disk.writePage(r.pageId, r.before);
+                Undo u = list.get(i);
+                // the record's own extent only: the rest of the page may have been changed by others since
+                Page p = pool.fetchPage(u.pageId());
+                p.writeLatch().lock();
+                try {
+                    ByteBuffer data = p.getBuffer();
+                    int now = HeapPage.length(data, u.offset());
+                    byte[] body = u.body() != null ? HeapPage.body(data, u.offset(), u.body().length) : null;
+                    HeapPage.set(data, u.offset(), u.length(), u.body());
+                    long lsn = wal.logUpdate(txId, u.pageId(), u.offset(), now, body, u.length(), u.body());
+                    HeapPage.setLsn(data, lsn);
+                    pool.markDirty(u.pageId(), lsn);
+                } finally {
+                    p.writeLatch().unlock();
+                    pool.unpinPage(u.pageId(), true);
+                }
             }
-            pool.flushAll();
-            updates.remove(txId);
+            /* the records are back as they were: their versions must go before tx looks ended */
+            for (Undo u : list) versions.discard(txId, u.pageId(), u.offset());
+            undo.remove(txId);
         }
+        wal.logAbort(txId);
+        end(txId);
+        locks.releaseAll(txId);
+    }
+
+    /**
+     * Takes the transaction out of the active set; under the monitor, so a snapshot sees it either running or done.
+     */
+    private synchronized void end(long txId) {
+        beginLsns.remove(txId);
+    }
+
+    /* ---------- locking ---------- */
+
+    /**
+     * Locks {@code key} (usually a {@link RecordId}) for {@code txId} until it commits or rolls back.
+     *
+     * @throws DeadlockException if the wait would deadlock or times out; roll the transaction back
+     */
+    public void lock(long txId, Object key, LockManager.Mode mode) {
+        locks.lock(txId, key, mode);
+    }
+
+    /**
+     * How long a transaction waits for a row lock before giving up; {@link LockManager#DEFAULT_TIMEOUT_MS} by default.
+     */
+    public void setLockTimeout(long millis) {
+        locks.setTimeout(millis);
+    }
+
+    /* ---------- snapshots ---------- */
+
+    /**
+     * A read view of every transaction committed so far. Close it when done; until then it keeps the versions it may
+     * need from being pruned.
+     */
+    public synchronized Snapshot snapshot() {
+        Snapshot s = new Snapshot(this, versions, nextTxId, Set.copyOf(beginLsns.keySet()));
+        snapshots.add(s);
+        return s;
+    }
+
+    void release(Snapshot s) {
+        snapshots.remove(s);
+    }
+
+    /**
+     * Whether snapshots may still need older versions of rows on the page; such a page must not be reused.
+     */
+    public boolean hasVersions(int pageId) {
+        return versions.page(pageId) != null;
+    }
+
+    /**
+     * Versions currently kept for snapshots.
+     */
+    public long retainedVersions() {
+        return versions.retained();
+    }
+
+    /**
+     * Drops the versions that every open snapshot, and every one taken from now on, sees past: those whose writer
+     * committed before the oldest transaction any open snapshot cannot see.
+     *
+     * @return the number of versions dropped
+     */
+    public int pruneVersions() {
+        long horizon;
+        Set<Long> active;
+        synchronized (this) {
+            horizon = nextTxId;         // transactions begun after this are not in the copy below
+            for (Snapshot s : snapshots) horizon = Math.min(horizon, s.xmin());
+            active = Set.copyOf(beginLsns.keySet());
+        }
+        long h = horizon;
+        return versions.prune(tx -> tx < h && !active.contains(tx));
+    }
+
+    /* ---------- checkpoints ---------- */
+
+    /**
+     * Logs a checkpoint of the transactions still active and the dirty pages, so that recovery can start at the oldest
+     * of their LSNs and the log before it can be deleted. Writes nothing back and blocks no writer.
+     * <p>
+     * A page leaves the dirty page table once it has been written to the file, which is not yet stable storage. The
+     * file is therefore forced before the checkpoint is logged: once {@code wal.ctl} moves the redo point past a
+     * page's log records, and the segments holding them are deleted, the page itself has to survive a crash.
+     */
+    public void checkpoint() throws IOException {
+        long begin = wal.size();        // a transaction missing from the copy has ended or begins after this
+        Map<Long, Long> active = Map.copyOf(beginLsns);
+        Map<Integer, Long> dirty = pool.dirtyPageTable();
+        disk.sync();                    // every page left out of the table is on disk before its log can go
+        wal.logCheckpoint(begin, active, dirty);
     }
 
     /* ---------- shutdown ---------- */
     public void close() throws IOException {
-        hardener.shutdownNow();
-        try {
-            hardener.awaitTermination(1, TimeUnit.SECONDS);
-        } catch (InterruptedException ignored) {
-        }
+        hardener.close();
+        cleaner.close();
+        pruner.shutdown();
         wal.flush();
         pool.flushAll();
+        checkpoint();                   // nothing is dirty: the next open replays almost nothing
         wal.close();
     }
 
+    /**
+     * Stops the background threads without writing anything back, logging anything or closing the log: the state a
+     * crash would leave behind, for crash tests, or after an I/O error that makes a clean {@link #close()} pointless.
+     * Safe to call more than once.
+     */
+    public void halt() {
+        hardener.close();
+        cleaner.close();
+        pruner.shutdown();
+    }
+
+    /**
+     * How far durability trails the commits.
+     *
+     * @param bytes        log bytes not yet forced
+     * @param transactions FAST commits not yet durable
+     * @param millis       age of the oldest of them
+     */
+    public record DurabilityLag(long bytes, int transactions, long millis) {
+    }
+
     /* ───────── helper record ───────── */
-    private record UpdateRecord(int pageId, byte[] before) {
+
+    /**
+     * How to undo one change: write {@code length} into the record's length field and, unless null, {@code body}
+     * over its body.
+     */
+    private record Undo(int pageId, int offset, int length, byte[] body) {
     }
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+package edu.mora.db.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * Full 2Q (Johnson &amp; Shasha). New pages enter the {@code a1in} FIFO; when they fall out of it their ids are
+ * remembered in the {@code a1out} ghost queue, and only a page that is loaded again while still remembered is promoted
+ * to the {@code am} LRU. A one-off scan therefore cycles through {@code a1in} without displacing the hot pages in
+ * {@code am}.
+ */
+final class TwoQueuePolicy implements ReplacementPolicy {
+    private final LinkedHashMap<Page, Boolean> a1in = new LinkedHashMap<>();                  // FIFO
+    private final LinkedHashMap<Page, Boolean> am = new LinkedHashMap<>(16, 0.75f, true);     // LRU
+    private final LinkedHashSet<Integer> a1out = new LinkedHashSet<>();                       // ghost page ids
+    private int kin = 1, kout = 1;
+
+    @Override
+    public synchronized void onLoad(Page frame) {
+        if (a1out.remove(frame.getPageId())) {
+            am.put(frame, Boolean.TRUE);
+        } else {
+            a1in.put(frame, Boolean.TRUE);
+        }
+        /* trimmed only now, so the eviction that made room for this page cannot push its own ghost out */
+        for (Iterator<Integer> oldest = a1out.iterator(); a1out.size() > kout; ) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    @Override
+    public synchronized void onAccess(Page frame) {
+        am.get(frame);                          // hits inside a1in deliberately do not promote
+    }
+
+    @Override
+    public synchronized Page evict() {
+        Page victim;
+        if (a1in.size() > kin) {
+            victim = claimFrom(a1in, true);
+            if (victim == null) victim = claimFrom(am, false);
+        } else {
+            victim = claimFrom(am, false);
+            if (victim == null) victim = claimFrom(a1in, true);
+        }
+        return victim;
+    }
+
+    @Override
+    public synchronized void remove(Page frame) {
+        a1in.remove(frame);
+        am.remove(frame);
+    }
+
+    @Override
+    public synchronized void resize(int frames) {
+        kin = Math.max(1, frames / 4);
+        kout = Math.max(1, frames / 2);
+    }
+
+    private Page claimFrom(LinkedHashMap<Page, Boolean> queue, boolean remember) {
+        for (Iterator<Page> it = queue.keySet().iterator(); it.hasNext(); ) {
+            Page f = it.next();
+            if (f.tryClaim()) {
+                it.remove();
+                if (remember) a1out.add(f.getPageId());
+                return f;
+            }
+        }
+        return null;
+    }
+}
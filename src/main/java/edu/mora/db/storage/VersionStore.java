@@ -0,0 +1,113 @@
+package edu.mora.db.storage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+
+/**
+ * In-memory undo chains that let readers see rows as of their {@link Snapshot}.
+ * <p>
+ * Rows are updated in place; before a transaction first changes a row it pushes the row's previous bytes (or
+ * {@code null} if the row did not exist yet) onto the row's chain, tagged with its own id. A reader starts from the
+ * bytes on the page and steps back through the chain past every writer its snapshot cannot see. Chains are kept per
+ * page, so a scan looks them up once per page and pages nobody has recently changed cost nothing extra.
+ * <p>
+ * Entries are only pushed under the row's exclusive lock and the page's write latch, and read under the page's read
+ * latch, so a reader never sees a page change without the entry that undoes it.
+ */
+final class VersionStore {
+
+    static final class Version {
+        final long writer;
+        final byte[] before;                        // null: the row did not exist before this writer
+        volatile Version older;
+
+        Version(long writer, byte[] before, Version older) {
+            this.writer = writer;
+            this.before = before;
+            this.older = older;
+        }
+    }
+
+    private final Map<Integer, Map<Integer, Version>> pages = new ConcurrentHashMap<>();   // page → offset → chain
+    private final AtomicLong retained = new AtomicLong();
+
+    /**
+     * Remembers the row's bytes before {@code tx} changes it; a no-op if {@code tx} already did.
+     */
+    void record(long tx, int pageId, int offset, byte[] before) {
+        pages.compute(pageId, (pid, rows) -> {
+            if (rows == null) rows = new ConcurrentHashMap<>();
+            Version head = rows.get(offset);
+            if (head == null || head.writer != tx) {
+                rows.put(offset, new Version(tx, before, head));
+                retained.incrementAndGet();
+            }
+            return rows;
+        });
+    }
+
+    /**
+     * Drops the entry {@code tx} pushed for a row it has rolled back; it is still the head, as {@code tx} held the
+     * row's lock throughout.
+     */
+    void discard(long tx, int pageId, int offset) {
+        pages.computeIfPresent(pageId, (pid, rows) -> {
+            Version head = rows.get(offset);
+            if (head != null && head.writer == tx) {
+                if (head.older == null) rows.remove(offset);
+                else rows.put(offset, head.older);
+                retained.decrementAndGet();
+            }
+            return rows.isEmpty() ? null : rows;
+        });
+    }
+
+    /**
+     * The chains of one page, or null if it has none.
+     */
+    Map<Integer, Version> page(int pageId) {
+        return pages.get(pageId);
+    }
+
+    /**
+     * Cuts every chain at its first entry whose writer all current and future snapshots can see: that entry and
+     * everything older undo changes no reader will ever step back over.
+     *
+     * @return the number of entries dropped
+     */
+    int prune(LongPredicate visibleToAll) {
+        int dropped = 0;
+        for (Map.Entry<Integer, Map<Integer, Version>> page : pages.entrySet()) {
+            Map<Integer, Version> rows = page.getValue();
+            for (Map.Entry<Integer, Version> row : rows.entrySet()) {
+                Version head = row.getValue();
+                if (visibleToAll.test(head.writer)) {
+                    if (rows.remove(row.getKey(), head)) dropped += length(head);
+                    continue;
+                }
+                for (Version v = head; v.older != null; v = v.older) {
+                    if (visibleToAll.test(v.older.writer)) {
+                        dropped += length(v.older);
+                        v.older = null;
+                        break;
+                    }
+                }
+            }
+            pages.computeIfPresent(page.getKey(), (pid, r) -> r.isEmpty() ? null : r);
+        }
+        retained.addAndGet(-dropped);
+        return dropped;
+    }
+
+    long retained() {
+        return retained.get();
+    }
+
+    private static int length(Version v) {
+        int n = 0;
+        for (; v != null; v = v.older) n++;
+        return n;
+    }
+}
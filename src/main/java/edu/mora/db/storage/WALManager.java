@@ -1,105 +1,746 @@
 package edu.mora.db.storage;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Append-only redo log. A record's LSN is the log offset just past it, so "durable up to LSN {@code n}" means every
+ * byte before {@code n} has been forced to disk.
+ * <p>
+ * The log is stored as a series of segment files {@code wal-<start LSN>.log} of about {@link #DEFAULT_SEGMENT_BYTES}
+ * each; once the log buffer has been written past the end of a segment, the next one starts (always at a record
+ * boundary). {@link #logCheckpoint(long, Map, Map)} records the active transactions and the dirty page table and notes
+ * in {@code wal.ctl} the redo LSN recovery has to start from, after which the segments wholly before it are deleted.
+ * Recovery and disk usage are therefore bounded by the checkpoint interval rather than by the age of the database.
+ * <p>
+ * {@link #flush(long)} implements group commit: of the threads that need the log forced, one becomes the leader and
+ * fsyncs everything appended so far, while the others wait as followers and return as soon as an fsync has covered
+ * their LSN. Eight concurrent committers therefore share a few fsyncs instead of issuing eight. With
+ * {@link #setCommitDelay(long, int)} the leader additionally waits a little for more committers to join its group.
+ * <p>
+ * Changes to heap pages are logged physiologically: a record names its page and describes the change in terms of one
+ * {@link HeapPage} record (the slot and bytes of an insert, the old and new length and body of an update), so that a
+ * logged change costs little more than the bytes it changed and can be undone on its own. Recovery repeats history
+ * and then rolls back the transactions that never ended (see {@link #recover(DiskManager)}).
+ * <p>
+ * Records are serialised into a reused per-thread scratch buffer and inserted into an in-memory ring buffer without
+ * taking a lock: a writer reserves its byte range by advancing the insert position atomically, copies its record in
+ * parallel with other writers, and then publishes it once every record before it has been published. The ring
+ * reaches the file in large sequential {@link FileChannel} writes of the published prefix, when a flush asks for it
+ * or when a writer needs the space. Records that have not been flushed are therefore not visible in the file yet.
+ */
 public class WALManager {
 
-    private static final String LOG_FILE = "wal.log";
-    private final RandomAccessFile logFile;
+    private static final String LEGACY_LOG_FILE = "wal.log";     // single-file log of earlier versions
+    private static final String CONTROL_FILE = "wal.ctl";
+    private static final int CONTROL_MAGIC = 0x57414C43;            // "WALC"
+    public static final long DEFAULT_SEGMENT_BYTES = 16L << 20;
+    static final int RECOVERY_THREADS = Math.min(8, Runtime.getRuntime().availableProcessors());
+
+    /* record types */
+    private static final byte BEGIN = 1;
+    private static final byte COMMIT = 3;
+    private static final byte ABORT = 4;
+    private static final byte CHECKPOINT = 6;           // begin LSN | txs | (tx | LSN)* | pages | (page | recLSN)*
+    private static final byte HEAP_INSERT = 7;          // pageId | slot | offset | length | body
+    private static final byte HEAP_UPDATE = 8;          // pageId | offset | old length | new length | n | old | new
+    private static final byte PAGE_FORMAT = 9;          // pageId
+    /* 2 and 5 were the whole-page and byte-range updates of page formats without a page LSN */
+    private static final int CHECKPOINT_ENTRIES = 16 * 1024;   // per table and record; larger tables span records
+    private static final int RECORD_HEADER = 4 + 1 + 8;         // len | type | txId
+    /**
+     * Ring buffer size (a power of two); also the largest record that can be logged.
+     */
+    static final int LOG_BUFFER_BYTES = 1 << 20;
+    private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal.withInitial(() -> ByteBuffer.allocate(1 << 14));
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final TreeMap<Long, FileChannel> segments = new TreeMap<>();   // start LSN → file (guarded by this)
+    private FileChannel current;                    // segment being appended to (guarded by this)
+    private long currentStart;
+    private final FileChannel control;
+    private volatile long checkpointLsn;            // LSN of the last checkpoint record, 0 if none
+    private volatile long redoLsn;                  // where recovery starts, as of that checkpoint
+
+    private final ByteBuffer ring = ByteBuffer.allocateDirect(LOG_BUFFER_BYTES);   // LSN n lives at n mod size
+    private final AtomicLong reserved;              // insert position: end of the last reserved record
+    private final AtomicLong published;             // end of the contiguous prefix of fully copied records
+    private volatile long written;                  // bytes handed to the file so far (advanced under this)
+
+    /* ───── group commit ───── */
+    private final Object group = new Object();
+    private volatile long durableLsn;               // everything before it is on disk
+    private boolean syncing;                        // a leader is forcing the log (guarded by group)
+    private int waiting;                            // committers waiting for it (guarded by group)
+    private long commitDelayNanos;
+    private int commitBatch = 1;
+    private final AtomicLong syncs = new AtomicLong();
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Long>> durableWaiters = new ConcurrentSkipListMap<>();
 
     public WALManager(String dbPath) throws IOException {
-        logFile = new RandomAccessFile(dbPath + "/" + LOG_FILE, "rw");
-        logFile.seek(logFile.length());            // append mode
+        this(dbPath, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public WALManager(String dbPath, long segmentBytes) throws IOException {
+        if (segmentBytes <= 0) throw new IllegalArgumentException("segmentBytes=" + segmentBytes);
+        this.dir = Path.of(dbPath);
+        this.segmentBytes = segmentBytes;
+
+        Path legacy = dir.resolve(LEGACY_LOG_FILE);
+        if (Files.exists(legacy) && !Files.exists(segmentPath(0))) Files.move(legacy, segmentPath(0));
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "wal-*.log")) {
+            for (Path f : ds) {
+                String name = f.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(4, name.length() - 4), 16), openSegment(f));
+            }
+        }
+        if (segments.isEmpty()) segments.put(0L, openSegment(segmentPath(0)));
+        currentStart = segments.lastKey();
+        current = segments.get(currentStart);
+        long end = currentStart + truncateTornTail(current);   // appends continue after the last whole record
+
+        control = FileChannel.open(dir.resolve(CONTROL_FILE),
+                                   StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer ctl = ByteBuffer.allocate(4 + 8 + 8);
+        control.read(ctl, 0);
+        if (ctl.position() == ctl.capacity()) {
+            if (ctl.getInt(0) != CONTROL_MAGIC) throw new IOException(CONTROL_FILE + " is not a log control file");
+            checkpointLsn = ctl.getLong(4);
+            redoLsn = ctl.getLong(12);
+        } else {
+            redoLsn = segments.firstKey();
+        }
+
+        reserved = new AtomicLong(end);
+        published = new AtomicLong(end);
+        written = end;
+        durableLsn = end;                           // whatever survived the last run is on disk
     }
 
     /* --------------- public log helpers ---------------- */
-    public synchronized void logBegin(long txId) throws IOException {
-        writeHdr((byte) 1, txId);
+
+    /**
+     * @return the record's LSN
+     */
+    public long logBegin(long txId) throws IOException {
+        return writeHdr(BEGIN, txId);
+    }
+
+    public long logCommit(long txId) throws IOException {
+        return writeHdr(COMMIT, txId);
+    }
+
+    public long logAbort(long txId) throws IOException {
+        return writeHdr(ABORT, txId);
+    }
+
+    /**
+     * Logs the insert of heap record {@code body} at {@code offset} of page {@code pageId}, in its next free slot
+     * {@code slot}.
+     */
+    public long logInsert(long txId, int pageId, int slot, int offset, byte[] body) throws IOException {
+        ByteBuffer b = scratch(RECORD_HEADER + 4 * 4 + body.length);
+        b.putInt(0).put(HEAP_INSERT).putLong(txId)
+                .putInt(pageId).putInt(slot).putInt(offset).putInt(body.length).put(body);
+        b.putInt(0, b.position() - 4);
+        return insert(b);
+    }
+
+    /**
+     * Logs a change to the heap record at {@code offset} of page {@code pageId} within its extent: its length field
+     * went from {@code oldLength} to {@code newLength} and, unless both are null, its body from {@code oldBody} to
+     * {@code newBody}, which are equally long. Rollbacks log their compensating changes this way too.
+     */
+    public long logUpdate(long txId, int pageId, int offset, int oldLength, byte[] oldBody,
+                          int newLength, byte[] newBody) throws IOException {
+        if (oldBody == null ? newBody != null : newBody == null || newBody.length != oldBody.length)
+            throw new IllegalArgumentException("old and new body differ in size");
+        int n = oldBody != null ? oldBody.length : 0;
+        ByteBuffer b = scratch(RECORD_HEADER + 5 * 4 + 2 * n);
+        b.putInt(0).put(HEAP_UPDATE).putLong(txId)
+                .putInt(pageId).putInt(offset).putInt(oldLength).putInt(newLength).putInt(n);
+        if (n > 0) b.put(oldBody).put(newBody);
+        b.putInt(0, b.position() - 4);
+        return insert(b);
+    }
+
+    /**
+     * Logs that page {@code pageId} was zeroed to start a new life as an empty heap page. Redo only: it belongs to no
+     * transaction and is never undone, and redo wipes whatever an earlier life of the page left behind.
+     */
+    public long logFormat(int pageId) throws IOException {
+        ByteBuffer b = scratch(RECORD_HEADER + 4);
+        b.putInt(0).put(PAGE_FORMAT).putLong(0).putInt(pageId);
+        b.putInt(0, b.position() - 4);
+        return insert(b);
+    }
+
+    /**
+     * Forces everything appended so far.
+     */
+    public void flush() throws IOException {
+        flush(reserved.get());
+    }
+
+    /**
+     * Returns once the log is durable up to {@code lsn}, joining an fsync that is already under way or leading the
+     * next one. Appends are not blocked meanwhile.
+     */
+    public void flush(long lsn) throws IOException {
+        if (durableLsn >= lsn) return;
+        synchronized (group) {
+            waiting++;
+            if (syncing) group.notifyAll();             // a leader may be gathering its group
+            try {
+                while (syncing && durableLsn < lsn) group.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the log to be forced", e);
+            } finally {
+                waiting--;
+            }
+            if (durableLsn >= lsn) return;              // a leader's fsync covered us
+            syncing = true;
+            if (commitDelayNanos > 0) gatherFollowers();
+        }
+        try {
+            awaitPublished(lsn);                        // records up to ours may still be being copied in
+            long upTo;
+            FileChannel segment;
+            synchronized (this) {
+                drain();
+                upTo = written;                         // every record published so far, followers' included
+                segment = current;                      // earlier segments were forced when they filled up
+            }
+            try {
+                segment.force(false);
+            } catch (ClosedChannelException e) {
+                synchronized (this) {
+                    if (segment == current) throw e;    // the log was closed
+                }
+                // filled up and deleted by a checkpoint meanwhile; rotation forced it before retiring it
+            }
+            syncs.incrementAndGet();
+            durableLsn = Math.max(durableLsn, upTo);
+            completeDurableWaiters();
+        } finally {
+            synchronized (group) {
+                syncing = false;
+                group.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Makes a group-commit leader wait up to {@code delayMicros} before forcing the log, or until {@code batch}
+     * committers (itself included) are waiting for it. Trades a little commit latency for fewer fsyncs; 0 (the
+     * default) forces straight away.
+     */
+    public void setCommitDelay(long delayMicros, int batch) {
+        if (delayMicros < 0 || batch < 1)
+            throw new IllegalArgumentException("delay=" + delayMicros + "µs, batch=" + batch);
+        synchronized (group) {
+            commitDelayNanos = TimeUnit.MICROSECONDS.toNanos(delayMicros);
+            commitBatch = batch;
+        }
+    }
+
+    /**
+     * LSN up to which the log is known to be on disk.
+     */
+    public long getDurableLsn() {
+        return durableLsn;
+    }
+
+    /**
+     * A future that completes, with the durable LSN, once the log is durable up to {@code lsn}. Unlike
+     * {@link #flush(long)} it does not force the log itself; the next flush that covers {@code lsn} completes it, and
+     * dependent actions not attached with an {@code *Async} method run on the flushing thread.
+     */
+    public CompletableFuture<Long> whenDurable(long lsn) {
+        long durable = durableLsn;
+        if (durable >= lsn) return CompletableFuture.completedFuture(durable);
+        CompletableFuture<Long> f = durableWaiters.computeIfAbsent(lsn, k -> new CompletableFuture<>());
+        if (durableLsn >= lsn) completeDurableWaiters();   // the covering flush may have missed it
+        return f.copy();                                // callers cannot complete the shared one
+    }
+
+    /**
+     * fsyncs issued by {@link #flush(long)} so far.
+     */
+    public long getSyncCount() {
+        return syncs.get();
     }
 
-    public synchronized void logCommit(long txId) throws IOException {
-        writeHdr((byte) 3, txId);
+    /**
+     * Bytes written to the log so far.
+     */
+    public long size() {
+        return reserved.get();
     }
 
-    public synchronized void logAbort(long txId) throws IOException {
-        writeHdr((byte) 4, txId);
+    /* --------------- checkpoints ---------- */
+
+    /**
+     * Logs a checkpoint and makes it durable, then deletes the segments recovery no longer needs. This is a fuzzy
+     * checkpoint: pages are not written back, and other threads keep logging while it runs.
+     *
+     * @param beginLsn   {@link #size()} before the tables below were collected; a change logged before it is either
+     *                   on disk, on a page in {@code dirtyPages}, or made by a transaction in {@code activeTxs}
+     * @param activeTxs  transactions in progress, each with the LSN of its first record
+     * @param dirtyPages pages whose cached copy is newer than the disk, each with its recLSN: the LSN of the first
+     *                   record that dirtied it since it was last written back. Every other page must already be on
+     *                   stable storage, since its log records may be deleted
+     * @return the redo LSN: recovery replays the log from the segment holding it
+     */
+    public long logCheckpoint(long beginLsn, Map<Long, Long> activeTxs,
+                              Map<Integer, Long> dirtyPages) throws IOException {
+        var txs = activeTxs.entrySet().iterator();
+        var pages = dirtyPages.entrySet().iterator();
+        long start = -1, end;
+        do {                                            // one record, unless a table is too large for it
+            int nTx = Math.min(CHECKPOINT_ENTRIES, activeTxs.size()), nPages = Math.min(CHECKPOINT_ENTRIES,
+                                                                                        dirtyPages.size());
+            ByteBuffer b = scratch(RECORD_HEADER + 8 + 4 + 16 * nTx + 4 + 12 * nPages);
+            b.putInt(0).put(CHECKPOINT).putLong(0).putLong(beginLsn);
+            int at = b.position(), n = 0;
+            b.putInt(0);
+            for (; n < CHECKPOINT_ENTRIES && txs.hasNext(); n++) {
+                Map.Entry<Long, Long> e = txs.next();
+                b.putLong(e.getKey()).putLong(e.getValue());
+            }
+            b.putInt(at, n);
+            at = b.position();
+            n = 0;
+            b.putInt(0);
+            for (; n < CHECKPOINT_ENTRIES && pages.hasNext(); n++) {
+                Map.Entry<Integer, Long> e = pages.next();
+                b.putInt(e.getKey()).putLong(e.getValue());
+            }
+            b.putInt(at, n);
+            int len = b.position();
+            b.putInt(0, len - 4);
+            end = insert(b);
+            if (start < 0) start = end - len;
+        } while (txs.hasNext() || pages.hasNext());
+        flush(end);
+
+        long redo = Math.min(start, beginLsn);
+        for (long lsn : activeTxs.values()) redo = Math.min(redo, lsn);
+        for (long lsn : dirtyPages.values()) redo = Math.min(redo, lsn);
+        synchronized (control) {
+            if (start < checkpointLsn) return redoLsn;  // a later concurrent checkpoint got there first
+            ByteBuffer ctl = ByteBuffer.allocate(4 + 8 + 8).putInt(CONTROL_MAGIC).putLong(start).putLong(redo).flip();
+            while (ctl.hasRemaining()) control.write(ctl, ctl.position());
+            control.force(false);
+            checkpointLsn = start;
+            redoLsn = redo;
+            truncate(redo);
+            return redo;
+        }
     }
 
-    public synchronized void logUpdate(long txId, int pageId,
-                                       byte[] before, byte[] after) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream dos = new DataOutputStream(baos);
-        dos.writeInt(pageId);
+    /**
+     * LSN of the last checkpoint record, or 0 if none has been taken.
+     */
+    public long getCheckpointLsn() {
+        return checkpointLsn;
+    }
 
-        dos.writeInt(before.length);
-        dos.write(before);
-        dos.writeInt(after.length);
-        dos.write(after);
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
 
-        byte[] payload = baos.toByteArray();
-        writeHdr((byte) 2, txId, payload);
+    /**
+     * The segment files currently making up the log, oldest first.
+     */
+    synchronized List<Path> segmentFiles() {
+        List<Path> out = new ArrayList<>();
+        for (long start : segments.keySet()) out.add(segmentPath(start));
+        return out;
     }
 
-    public synchronized void flush() throws IOException {
-        logFile.getFD().sync();
+    /* --------------- recovery ---------- */
+
+    /**
+     * Brings the data file back to the state of the log, ARIES-style, from the redo LSN of the last checkpoint.
+     * <ol>
+     * <li>Analysis: a single pass over the mapped segments collects the heap-page changes and page formats,
+     * partitioned by page among the redo workers, and the changes of every transaction that has not ended by the end
+     * of the log.</li>
+     * <li>Redo repeats history: the workers replay each page's changes in log order, committed or not, skipping those
+     * the page image already holds according to its page LSN.</li>
+     * <li>Undo rolls back the transactions that never ended, newest change first across all of them, logging each
+     * compensating change and finally an ABORT, so that a crash during recovery does not undo them twice.</li>
+     * </ol>
+     * A redo worker writes a page back as soon as it has replayed the page's last change in its partition, so only
+     * the pages it is still replaying stay in memory; their page LSNs are already in the log. The pages the undo pass
+     * needs are kept instead, and written back once its compensating changes and ABORTs have been forced.
+     */
+    public void recover(DiskManager disk) throws IOException {
+        recover(disk, RECOVERY_THREADS);
     }
 
-    /* --------------- recovery (same as before) ---------- */
-    public void recover(BufferPool pool, DiskManager disk) throws IOException {
-        logFile.seek(0);
-        Set<Long> begun = new HashSet<>(), committed = new HashSet<>();
+    void recover(DiskManager disk, int workers) throws IOException {
+        drain();
+        long end = written;
+        List<List<Change>> parts = new ArrayList<>();
+        for (int i = 0; i < workers; i++) parts.add(new ArrayList<>());
 
-        while (logFile.getFilePointer() < logFile.length()) {
-            int len = logFile.readInt();
-            byte typ = logFile.readByte();
-            long tx = logFile.readLong();
-            switch (typ) {
-                case 1 -> begun.add(tx);
-                case 3 -> committed.add(tx);
+        /* ANALYSIS */
+        Map<Long, List<Change>> unfinished = new HashMap<>();      // tx → its changes, until it ends
+        for (long start : segmentStarts(scanStart())) {
+            if (start >= end) break;
+            ByteBuffer log = map(segmentPath(start), end - start);
+            for (int pos = 0, len; (len = recordLength(log, pos)) >= 0; ) {
+                byte typ = log.get(pos + 4);
+                long tx = log.getLong(pos + 5);
+                switch (typ) {
+                    case BEGIN -> unfinished.computeIfAbsent(tx, t -> new ArrayList<>());
+                    case HEAP_INSERT, HEAP_UPDATE, PAGE_FORMAT -> {
+                        Change c = new Change(start + pos + 4 + len, typ, tx, log.slice(pos + RECORD_HEADER, len - 9));
+                        parts.get(Math.floorMod(c.pageId(), workers)).add(c);
+                        if (typ != PAGE_FORMAT) unfinished.computeIfAbsent(tx, t -> new ArrayList<>()).add(c);
+                    }
+                    case COMMIT, ABORT -> unfinished.remove(tx);
+                }
+                pos += 4 + len;
             }
-            logFile.skipBytes(len - 1 - 8);
-        }
-
-        logFile.seek(0);
-        while (logFile.getFilePointer() < logFile.length()) {
-            int len = logFile.readInt();
-            byte typ = logFile.readByte();
-            long tx = logFile.readLong();
-
-            if (typ == 2 && committed.contains(tx)) {
-                int pageId = logFile.readInt();
-                int bLen = logFile.readInt();
-                byte[] before = new byte[bLen];
-                logFile.readFully(before);
-                int aLen = logFile.readInt();
-                byte[] after = new byte[aLen];
-                logFile.readFully(after);
-                disk.writePage(pageId, after);                  // REDO
-            } else {
-                logFile.skipBytes(len - 1 - 8);
+        }
+
+        List<Change> losers = new ArrayList<>();
+        for (List<Change> cs : unfinished.values()) losers.addAll(cs);
+        Set<Integer> loserPages = new HashSet<>();
+        for (Change c : losers) loserPages.add(c.pageId());
+
+        /* REDO, partitioned by page id */
+        Map<Integer, byte[]> kept = new ConcurrentHashMap<>();    // images of the loser pages, for undo
+        AtomicInteger threadNo = new AtomicInteger();
+        ExecutorService redoers = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "wal-redo-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<CompletableFuture<Void>> done = new ArrayList<>();
+            for (List<Change> part : parts) {
+                if (part.isEmpty()) continue;
+                CompletableFuture<Void> f = new CompletableFuture<>();
+                redoers.execute(() -> {
+                    try {
+                        redo(part, disk, loserPages, kept);
+                        f.complete(null);
+                    } catch (Throwable t) {
+                        f.completeExceptionally(t);
+                    }
+                });
+                done.add(f);
             }
+            for (CompletableFuture<Void> f : done) IOEngine.await(f);
+        } finally {
+            redoers.shutdown();
         }
+
+        /* UNDO of the transactions that never ended */
+        losers.sort(Comparator.comparingLong(Change::lsn).reversed());
+        for (Change c : losers) undo(c, ByteBuffer.wrap(kept.get(c.pageId())));
+        for (long tx : unfinished.keySet()) logAbort(tx);
+        flush();
+
+        for (Map.Entry<Integer, byte[]> e : kept.entrySet()) disk.writePage(e.getKey(), e.getValue());
     }
 
-    public void close() throws IOException {
-        logFile.close();
+    /**
+     * Replays one partition in log order into the page images, skipping the changes an image already holds. A page is
+     * written back after its last change here, if any was replayed, and dropped; a loser page goes to {@code kept}.
+     */
+    private static void redo(List<Change> part, DiskManager disk, Set<Integer> loserPages,
+                             Map<Integer, byte[]> kept) throws IOException {
+        Map<Integer, Integer> last = new HashMap<>();              // page → index of its last change here
+        for (int i = 0; i < part.size(); i++) last.put(part.get(i).pageId(), i);
+        Map<Integer, byte[]> pages = new HashMap<>();
+        Set<Integer> changed = new HashSet<>();
+        for (int i = 0; i < part.size(); i++) {
+            Change c = part.get(i);
+            int pageId = c.pageId();
+            byte[] page = pages.get(pageId);
+            if (page == null) pages.put(pageId, page = readForRedo(disk, pageId));
+            if (replay(c, ByteBuffer.wrap(page))) changed.add(pageId);
+            if (last.get(pageId) != i) continue;
+            pages.remove(pageId);
+            if (loserPages.contains(pageId)) kept.put(pageId, page);
+            else if (changed.remove(pageId)) disk.writePage(pageId, page);
+        }
+    }
+
+    /**
+     * Applies one change to a page image unless the image already holds it; returns whether it did.
+     */
+    private static boolean replay(Change c, ByteBuffer data) {
+        if (HeapPage.lsn(data) >= c.lsn()) return false;            // written back after this change
+        ByteBuffer b = c.body();
+        if (c.type() == PAGE_FORMAT) {
+            HeapPage.format(data);
+        } else if (c.type() == HEAP_INSERT) {
+            HeapPage.insert(data, b.getInt(4), b.getInt(8), bytes(b, 16, b.getInt(12)));
+        } else {
+            int n = b.getInt(16);
+            HeapPage.set(data, b.getInt(4), b.getInt(12), n > 0 ? bytes(b, 20 + n, n) : null);
+        }
+        HeapPage.setLsn(data, c.lsn());
+        return true;
+    }
+
+    /**
+     * Reverts one change of a transaction that never ended, and logs the compensating change as its own.
+     */
+    private void undo(Change c, ByteBuffer data) throws IOException {
+        ByteBuffer b = c.body();
+        long lsn;
+        if (c.type() == HEAP_INSERT) {                              // the slot stays, as a tombstone
+            int off = b.getInt(8), len = b.getInt(12);
+            lsn = logUpdate(c.tx(), c.pageId(), off, len, null, -len, null);
+            HeapPage.set(data, off, -len, null);
+        } else {
+            int off = b.getInt(4), n = b.getInt(16);
+            byte[] old = n > 0 ? bytes(b, 20, n) : null, now = n > 0 ? bytes(b, 20 + n, n) : null;
+            lsn = logUpdate(c.tx(), c.pageId(), off, b.getInt(12), now, b.getInt(8), old);
+            HeapPage.set(data, off, b.getInt(8), old);
+        }
+        HeapPage.setLsn(data, lsn);
+    }
+
+    private static byte[] bytes(ByteBuffer b, int at, int n) {
+        byte[] out = new byte[n];
+        b.get(at, out);
+        return out;
+    }
+
+    /**
+     * A heap-page change found by the analysis pass: its LSN, record type, transaction and the body after the record
+     * header.
+     */
+    private record Change(long lsn, byte type, long tx, ByteBuffer body) {
+        int pageId() {
+            return body.getInt(0);
+        }
+    }
+
+    /**
+     * Writes out the log buffer (without forcing it) and closes the files.
+     */
+    public synchronized void close() throws IOException {
+        awaitPublished(reserved.get());
+        drain();
+        for (CompletableFuture<Long> f : durableWaiters.values()) {
+            f.completeExceptionally(new IOException("Log closed before it was forced"));
+        }
+        for (FileChannel c : segments.values()) c.close();
+        control.close();
     }
 
     /* --------------- private  --------------------------- */
-    private void writeHdr(byte type, long txId) throws IOException {
-        writeHdr(type, txId, new byte[0]);
+
+    private void completeDurableWaiters() {
+        long durable = durableLsn;
+        for (Map.Entry<Long, CompletableFuture<Long>> e; (e = durableWaiters.firstEntry()) != null
+                && e.getKey() <= durable; ) {
+            if (durableWaiters.remove(e.getKey(), e.getValue())) e.getValue().complete(durable);
+        }
+    }
+
+    private Path segmentPath(long start) {
+        return dir.resolve(String.format("wal-%016x.log", start));
+    }
+
+    private static FileChannel openSegment(Path f) throws IOException {
+        return FileChannel.open(f, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Start of the segment holding the record that ends at the redo LSN; segments begin at record boundaries.
+     */
+    private synchronized long scanStart() {
+        Long start = segments.lowerKey(redoLsn);
+        return start != null ? start : segments.firstKey();
+    }
+
+    private synchronized List<Long> segmentStarts(long from) {
+        return new ArrayList<>(segments.tailMap(from, true).keySet());
     }
 
-    private void writeHdr(byte type, long txId, byte[] payload) throws IOException {
-        int len = 1 + 8 + payload.length;
-        logFile.writeInt(len);
-        logFile.writeByte(type);
-        logFile.writeLong(txId);
-        logFile.write(payload);
+    /**
+     * Length field of the record at {@code pos}, or -1 where the log ends: fewer bytes than a header, a length shorter
+     * than the header after it, or a record running past the end of the buffer.
+     */
+    private static int recordLength(ByteBuffer log, int pos) {
+        if (pos + 4 > log.limit()) return -1;
+        int len = log.getInt(pos);
+        return len < RECORD_HEADER - 4 || pos + 4L + len > log.limit() ? -1 : len;
+    }
+
+    /**
+     * Cuts a record the crash left half-written off the newest segment and forces the cut, so that later appends
+     * start at a record boundary instead of after bytes the next recovery would misread; returns the length kept.
+     */
+    private static long truncateTornTail(FileChannel segment) throws IOException {
+        long size = segment.size();
+        if (size > Integer.MAX_VALUE) throw new IOException("log segment is too large to map");
+        ByteBuffer log = segment.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        int pos = 0;
+        for (int len; (len = recordLength(log, pos)) >= 0; ) pos += 4 + len;
+        if (pos < size) {
+            segment.truncate(pos);
+            segment.force(true);
+        }
+        return pos;
+    }
+
+    /**
+     * Maps up to {@code limit} bytes of a segment read-only; the mapping outlives the channel.
+     */
+    private static ByteBuffer map(Path segment, long limit) throws IOException {
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long n = Math.min(ch.size(), limit);
+            if (n > Integer.MAX_VALUE) throw new IOException(segment + " is too large to map");
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, n);
+        }
+    }
+
+    /**
+     * Deletes the segments that end before the record ending at {@code redo}: the next segment starts at or before it.
+     */
+    private synchronized void truncate(long redo) throws IOException {
+        while (segments.size() > 1) {
+            Map.Entry<Long, FileChannel> oldest = segments.firstEntry();
+            long next = segments.higherKey(oldest.getKey());
+            if (next >= redo || oldest.getValue() == current) break;
+            oldest.getValue().close();
+            Files.delete(segmentPath(oldest.getKey()));
+            segments.remove(oldest.getKey());
+        }
+    }
+
+    /**
+     * The on-disk image a redo starts from; a page the file does not reach yet starts out zeroed.
+     */
+    private static byte[] readForRedo(DiskManager disk, int pageId) throws IOException {
+        try {
+            return disk.readPage(pageId);
+        } catch (EOFException e) {
+            return new byte[disk.getPageSize()];
+        }
+    }
+
+    /**
+     * Leader side of the commit delay; the caller holds {@link #group}.
+     */
+    private void gatherFollowers() throws IOException {
+        long deadline = System.nanoTime() + commitDelayNanos;
+        try {
+            for (long left = commitDelayNanos; left > 0 && waiting + 1 < commitBatch;
+                 left = deadline - System.nanoTime()) {
+                TimeUnit.NANOSECONDS.timedWait(group, left);
+            }
+        } catch (InterruptedException e) {
+            syncing = false;
+            group.notifyAll();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while gathering a commit group", e);
+        }
+    }
+
+    private long writeHdr(byte type, long txId) throws IOException {
+        ByteBuffer b = scratch(RECORD_HEADER);
+        b.putInt(RECORD_HEADER - 4).put(type).putLong(txId);
+        return insert(b);
+    }
+
+    /**
+     * This thread's scratch buffer, cleared and at least {@code bytes} long.
+     */
+    private static ByteBuffer scratch(int bytes) {
+        ByteBuffer b = SCRATCH.get();
+        if (b.capacity() < bytes) SCRATCH.set(b = ByteBuffer.allocate(bytes));
+        return b.clear();
+    }
+
+    /**
+     * Inserts the record serialised in {@code rec} (from 0 up to its position) and returns its LSN: reserves the
+     * range, waits until the ring has room for it, copies it in and publishes it after its predecessors.
+     */
+    private long insert(ByteBuffer rec) throws IOException {
+        int len = rec.position();
+        if (len > LOG_BUFFER_BYTES)
+            throw new IllegalArgumentException("Log record of " + len + " bytes exceeds the log buffer");
+        long start = reserved.getAndAdd(len);
+        long end = start + len;
+        while (end - written > LOG_BUFFER_BYTES) {      // its space still holds records not yet written out
+            if (published.get() > written) drain();
+            else Thread.onSpinWait();
+        }
+        int off = (int) (start & (LOG_BUFFER_BYTES - 1));
+        int first = Math.min(len, LOG_BUFFER_BYTES - off);
+        ring.put(off, rec.array(), 0, first);
+        if (first < len) ring.put(0, rec.array(), first, len - first);     // wraps around
+
+        awaitPublished(start);
+        published.set(end);
+        return end;
+    }
+
+    /**
+     * Waits until every record ending at or before {@code lsn} has been copied in. Copies take microseconds, so this
+     * spins before it yields.
+     */
+    private void awaitPublished(long lsn) {
+        for (int spins = 0; published.get() < lsn; spins++) {
+            if (spins < 100) Thread.onSpinWait();
+            else Thread.yield();
+        }
+    }
+
+    /**
+     * Hands the published prefix of the ring to the file, in at most two sequential writes.
+     */
+    private synchronized void drain() throws IOException {
+        long upTo = published.get();
+        for (long from = written; from < upTo; ) {
+            int off = (int) (from & (LOG_BUFFER_BYTES - 1));
+            int n = (int) Math.min(upTo - from, LOG_BUFFER_BYTES - off);
+            ByteBuffer chunk = ring.duplicate().limit(off + n).position(off);
+            while (chunk.hasRemaining()) from += current.write(chunk, from - currentStart);
+            written = from;
+        }
+        if (written - currentStart >= segmentBytes) {  // full: continue in a new segment, at a record boundary
+            current.force(false);                       // a later flush only forces the new one
+            currentStart = written;
+            current = openSegment(segmentPath(currentStart));
+            segments.put(currentStart, current);
+        }
     }
 }
\ No newline at end of file
@@ -8,20 +8,38 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Predicate;
 
 import static java.lang.Integer.BYTES;
 
 /**
  * A heap-file table that logs every page update through the TransactionManager.
+ * <p>
+ * Every page access is bracketed by {@link BufferPool#fetchPage(int)} / {@link BufferPool#unpinPage(int, boolean)} and
+ * holds the page's read or write latch while touching its bytes.
+ * <p>
+ * Writers lock the rows they update or delete exclusively, through the transaction manager's lock table, before
+ * latching their page, so no latch is held while waiting for a contended lock. An inserted row is locked before its
+ * page's latch is released, so no other writer can reach it unlocked; being new, its lock is normally free. Rows are
+ * changed through the transaction manager ({@link TransactionManager#insertRecord} and friends), which logs each change
+ * and keeps the row's old bytes, so that a {@link #scan(Snapshot, Predicate)} can read past the change without taking
+ * any lock.
+ * <p>
+ * Pages use the {@link HeapPage} layout.
  */
 public class Table {
-    public static final int HEADER_SIZE = BYTES;                 // slot-count prefix
+    public static final int HEADER_SIZE = HeapPage.HEADER_SIZE;
+    /**
+     * Pages handed to {@link BufferPool#prefetch(List)} at a time by sequential walks over the heap.
+     */
+    static final int READ_AHEAD_PAGES = 32;
     private final String name;
     private final Schema schema;
     private final BufferPool bufPool;
     private final DiskManager disk;
     private final Catalog catalog;
+    private final int pageSize;
     private final int capacityPerPage;
     private final List<Integer> pageIds;
 
@@ -34,8 +52,9 @@ public class Table {
         this.bufPool = pool;
         this.disk = disk;
         this.catalog = catalog;
-        this.capacityPerPage = Page.PAGE_SIZE - HEADER_SIZE;
-        this.pageIds = new ArrayList<>(existingPages);
+        this.pageSize = disk.getPageSize();
+        this.capacityPerPage = pageSize - HEADER_SIZE;
+        this.pageIds = new CopyOnWriteArrayList<>(existingPages);   // scans run while inserts allocate
     }
 
     public Table(String name, Schema schema,
@@ -50,82 +69,134 @@ public class Table {
         if (rec.length > capacityPerPage - 2 * BYTES)
             throw new IllegalArgumentException("Tuple too large");
 
-        if (pageIds.isEmpty()) allocateFreshPage();
-        int pid = findPageWithSpace(rec.length);
-        Page p = bufPool.getPage(pid);
-        byte[] before = p.getData().clone();
-
-        int offset = writeRecordIntoPage(p, rec);
-        byte[] after = p.getData().clone();
-
-        tm.recordPageUpdate(tx, pid, before, after);
-        return new RecordId(pid, offset);
+        RecordId rid;
+        while (true) {
+            int pid = findPageWithSpace(rec.length, tm);
+            Page p = bufPool.fetchPage(pid);
+            boolean dirty = false;
+            p.writeLatch().lock();
+            try {
+                /* a concurrent insert may have filled the page since findPageWithSpace looked */
+                if (HeapPage.freeSpace(p.getBuffer()) < rec.length + 2 * BYTES) continue;
+
+                int offset = tm.insertRecord(tx, p, rec);
+                dirty = true;
+                rid = new RecordId(pid, offset);
+                /* locked before the latch is released, so no scan can find the row and write it first; the row is
+                   new, so only a lock still held on a slot of a recycled page can make this wait (up to the timeout) */
+                tm.lock(tx, rid, LockManager.Mode.EXCLUSIVE);
+                break;
+            } finally {
+                p.writeLatch().unlock();
+                bufPool.unpinPage(pid, dirty);
+            }
+        }
+        return rid;
     }
 
     /* ─────────────────── UPDATE ─────────────────────────────────── */
     public RecordId updateTuple(long tx, TransactionManager tm, RecordId rid, Tuple newT) throws IOException {
+        tm.lock(tx, rid, LockManager.Mode.EXCLUSIVE);
         byte[] rec = newT.serialize();
-        Page p = bufPool.getPage(rid.getPageId());
-        byte[] before = p.getData().clone();
-
-        ByteBuffer data = ByteBuffer.wrap(p.getData());
-        int oldLen = data.getInt(rid.getOffset());
-        if (oldLen <= 0) throw new IllegalStateException("Cannot update deleted tuple");
-
-        RecordId result;
-        if (rec.length <= oldLen) {
-            data.putInt(rid.getOffset(), rec.length);
-            System.arraycopy(rec, 0, p.getData(), rid.getOffset() + BYTES, rec.length);
-            result = rid;
-        } else {
-            data.putInt(rid.getOffset(), 0);                    // tombstone
-            result = insertTuple(tx, tm, newT);                 // inserts logs itself
+        Page p = bufPool.fetchPage(rid.getPageId());
+        boolean relocate = false, dirty = false;
+        p.writeLatch().lock();
+        try {
+            int oldLen = HeapPage.length(p.getBuffer(), rid.getOffset());
+            if (oldLen <= 0) throw new IllegalStateException("Cannot update deleted tuple");
+
+            relocate = rec.length > oldLen;
+            if (!relocate) tm.updateRecord(tx, p, rid.getOffset(), rec);    // keeps the extent
+            else tm.deleteRecord(tx, p, rid.getOffset());                   // tombstone, keeps its extent
+            dirty = true;
+        } finally {
+            p.writeLatch().unlock();
+            bufPool.unpinPage(rid.getPageId(), dirty);
         }
-
-        byte[] after = p.getData().clone();
-        tm.recordPageUpdate(tx, rid.getPageId(), before, after);
-        return result;
+        /* re-insert only after releasing the old page, so latches are never held two at a time */
+        return relocate ? insertTuple(tx, tm, newT) : rid;  // inserts logs itself
     }
 
     /* ─────────────────── DELETE ─────────────────────────────────── */
     public void deleteTuple(long tx, TransactionManager tm, RecordId rid) throws IOException {
-        Page p = bufPool.getPage(rid.getPageId());
-        byte[] before = p.getData().clone();
-
-        ByteBuffer data = ByteBuffer.wrap(p.getData());
-        data.putInt(rid.getOffset(), 0);
-
-        byte[] after = p.getData().clone();
-        tm.recordPageUpdate(tx, rid.getPageId(), before, after);
+        tm.lock(tx, rid, LockManager.Mode.EXCLUSIVE);
+        Page p = bufPool.fetchPage(rid.getPageId());
+        p.writeLatch().lock();
+        try {
+            tm.deleteRecord(tx, p, rid.getOffset());            // tombstone, keeps its extent
+        } finally {
+            p.writeLatch().unlock();
+            bufPool.unpinPage(rid.getPageId(), true);
+        }
     }
 
     /* ─────────────────── READ / SCAN (unchanged) ────────────────── */
     public Tuple readTuple(RecordId rid) throws IOException {
-        Page p = bufPool.getPage(rid.getPageId());
-        ByteBuffer data = ByteBuffer.wrap(p.getData());
-        int len = data.getInt(rid.getOffset());
-        if (len <= 0) throw new IllegalStateException("Deleted tuple");
+        Tuple t = readLive(rid);
+        if (t == null) throw new IllegalStateException("Deleted tuple");
+        return t;
+    }
 
-        byte[] rec = new byte[len];
-        System.arraycopy(p.getData(), rid.getOffset() + BYTES, rec, 0, len);
+    /**
+     * Locks the row for {@code tx}, then reads it: what a writer that found the row by an unlocked scan has to do
+     * before computing its new value. Returns null if the row was deleted or moved before the lock was granted.
+     */
+    public Tuple lockAndRead(long tx, TransactionManager tm, RecordId rid, LockManager.Mode mode) throws IOException {
+        tm.lock(tx, rid, mode);
+        return readLive(rid);
+    }
+
+    private Tuple readLive(RecordId rid) throws IOException {
+        Page p = bufPool.fetchPage(rid.getPageId());
+        byte[] rec;
+        p.readLatch().lock();
+        try {
+            ByteBuffer data = p.getBuffer();
+            int len = HeapPage.length(data, rid.getOffset());
+            if (len <= 0) return null;
+
+            rec = HeapPage.body(data, rid.getOffset(), len);
+        } finally {
+            p.readLatch().unlock();
+            bufPool.unpinPage(rid.getPageId(), false);
+        }
         return Tuple.deserialize(schema, rec);
     }
 
     public List<Tuple> scan(Predicate<Tuple> pred) throws IOException {
+        return scan(null, pred);
+    }
+
+    /**
+     * Scans the rows as {@code snap} sees them, or as they are now if it is null. Takes no row locks: rows changed by
+     * transactions the snapshot cannot see are read from their undo chains instead, tombstones included.
+     */
+    public List<Tuple> scan(Snapshot snap, Predicate<Tuple> pred) throws IOException {
         List<Tuple> out = new ArrayList<>();
-        for (int pid : pageIds) {
-            Page p = bufPool.getPage(pid);
-            ByteBuffer data = ByteBuffer.wrap(p.getData());
-            int slots = data.getInt(0);
-            for (int i = 0; i < slots; i++) {
-                int slotPos = Page.PAGE_SIZE - BYTES * (i + 1);
-                int off = data.getInt(slotPos);
-                int len = data.getInt(off);
-                if (len <= 0) continue;
-                byte[] rec = new byte[len];
-                System.arraycopy(p.getData(), off + BYTES, rec, 0, len);
-                Tuple t = Tuple.deserialize(schema, rec);
-                if (pred.test(t)) out.add(t);
+        List<Integer> pids = List.copyOf(pageIds);
+        try (BufferPool.ScanRing ring = bufPool.scanRing(pids.size())) {   // big scans stay out of the shared pool
+            for (int n = 0; n < pids.size(); n++) {
+                int pid = pids.get(n);
+                readAhead(ring, pids, n);
+                Page p = ring.fetchPage(pid);
+                p.readLatch().lock();
+                try {
+                    ByteBuffer data = p.getBuffer();
+                    int slots = HeapPage.slotCount(data);
+                    boolean versioned = snap != null && snap.hasVersions(pid);
+                    for (int i = 0; i < slots; i++) {
+                        int off = HeapPage.slotOffset(data, i);
+                        int len = HeapPage.length(data, off);
+                        byte[] rec = len > 0 ? HeapPage.body(data, off, len) : null;
+                        if (versioned) rec = snap.resolve(pid, off, rec);
+                        if (rec == null) continue;
+                        Tuple t = Tuple.deserialize(schema, rec);
+                        if (pred.test(t)) out.add(t);
+                    }
+                } finally {
+                    p.readLatch().unlock();
+                    bufPool.unpinPage(pid, false);
+                }
             }
         }
         return out;
@@ -137,23 +208,31 @@ public class Table {
 
     public List<Row> scanRows(Predicate<Tuple> pred) throws IOException {
         List<Row> out = new ArrayList<>();
-        for (int pid : pageIds) {
-            Page p = bufPool.getPage(pid);
-            ByteBuffer data = ByteBuffer.wrap(p.getData());
-            int slots = data.getInt(0);
-
-            for (int i = 0; i < slots; i++) {
-                int slotPos = Page.PAGE_SIZE - BYTES * (i + 1);
-                int off = data.getInt(slotPos);
-                int len = data.getInt(off);
-                if (len <= 0) continue;                 // tombstone
-
-                byte[] rec = new byte[len];
-                System.arraycopy(p.getData(), off + BYTES, rec, 0, len);
-                Tuple tup = Tuple.deserialize(schema, rec);
-
-                if (pred.test(tup))
-                    out.add(new Row(new RecordId(pid, off), tup));
+        List<Integer> pids = List.copyOf(pageIds);
+        try (BufferPool.ScanRing ring = bufPool.scanRing(pids.size())) {   // big scans stay out of the shared pool
+            for (int n = 0; n < pids.size(); n++) {
+                int pid = pids.get(n);
+                readAhead(ring, pids, n);
+                Page p = ring.fetchPage(pid);
+                p.readLatch().lock();
+                try {
+                    ByteBuffer data = p.getBuffer();
+                    int slots = HeapPage.slotCount(data);
+
+                    for (int i = 0; i < slots; i++) {
+                        int off = HeapPage.slotOffset(data, i);
+                        int len = HeapPage.length(data, off);
+                        if (len <= 0) continue;                 // tombstone
+
+                        Tuple tup = Tuple.deserialize(schema, HeapPage.body(data, off, len));
+
+                        if (pred.test(tup))
+                            out.add(new Row(new RecordId(pid, off), tup));
+                    }
+                } finally {
+                    p.readLatch().unlock();
+                    bufPool.unpinPage(pid, false);
+                }
             }
         }
         return out;
@@ -167,62 +246,92 @@ public class Table {
     /**
      * Allocates a brand-new page, records ownership in catalog.
      */
-    private void allocateFreshPage() throws IOException {
+    private int allocateFreshPage(TransactionManager tm) throws IOException {
         int pid = disk.allocatePage();
-        pageIds.add(pid);
 
-        /* the page is all-zero (slotCount = 0) already – nothing else to do */
+        /* a reused page may have had an earlier life in the log: the format tells redo where this one starts */
+        Page p = bufPool.fetchPage(pid);
+        p.writeLatch().lock();
+        try {
+            tm.formatPage(p);
+        } finally {
+            p.writeLatch().unlock();
+            bufPool.unpinPage(pid, true);
+        }
+        pageIds.add(pid);
         catalog.registerPage(name, pid);               // persist
+        return pid;
     }
 
-    /* ─────────────────── helpers ─────────────────────────────────── */
-    private int findPageWithSpace(int recLen) throws IOException {
-        for (int pid : pageIds) {
-            Page p = bufPool.getPage(pid);
-            ByteBuffer data = ByteBuffer.wrap(p.getData());
-
-            int numSlots = data.getInt(0);
-            int used = HEADER_SIZE;
-
-            for (int j = 0; j < numSlots; j++) {
-                int slotPos = Page.PAGE_SIZE - BYTES * (j + 1);
-                used += BYTES                    // length-prefix of tuple
-                        + data.getInt(data.getInt(slotPos));  // tuple body
-            }
+    /* ─────────────────── VACUUM ─────────────────────────────────── */
 
-            /* free space in front of current slot directory */
-            int slotDirStart = Page.PAGE_SIZE - BYTES * numSlots;
-            int free = slotDirStart - used;
+    /**
+     * Hands pages without a single live record back to the DiskManager for reuse and drops them from the table, so
+     * scans stop visiting them. Needs a quiescent table: an open transaction could still roll a released page back.
+     *
+     * @return the number of pages released
+     */
+    public int vacuum(TransactionManager tm) throws IOException {
+        if (tm.activeTransactions() > 0)
+            throw new IllegalStateException("VACUUM cannot run while transactions are active");
+        tm.pruneVersions();                             // without waiting for the pruner's next round
+        int released = 0;
+        for (int pid : List.copyOf(pageIds)) {
+            Page p = bufPool.fetchPage(pid);
+            boolean empty;
+            p.readLatch().lock();
+            try {
+                empty = !HeapPage.hasLiveRecords(p.getBuffer());
+            } finally {
+                p.readLatch().unlock();
+                bufPool.unpinPage(pid, false);
+            }
+            if (!empty || tm.hasVersions(pid)) continue;    // an open snapshot may still read its rows
 
-            /*  ⟹  record  = (length-field + body)  +  1 new slot pointer  */
-            if (free >= recLen + 2 * BYTES)      //  <<<  FIX: +BYTES
-                return pid;
+            pageIds.remove(Integer.valueOf(pid));
+            catalog.releasePage(name, pid);             // ownership first: a crash now only leaks the page
+            bufPool.discardPage(pid);
+            disk.freePage(pid);
+            released++;
         }
-        allocateFreshPage();
-        return pageIds.getLast();
+        return released;
     }
 
+    /* ─────────────────── helpers ─────────────────────────────────── */
 
     /**
-     * Writes the record into the page and returns its offset.
+     * At the start of every window of a sequential walk, asks the pool to fault in the whole window at once.
      */
-    private int writeRecordIntoPage(Page p, byte[] rec) {
-        ByteBuffer data = ByteBuffer.wrap(p.getData());
-        int slots = data.getInt(0);
-        int offset = HEADER_SIZE;
-        for (int i = 0; i < slots; i++) {
-            int slotPos = Page.PAGE_SIZE - BYTES * (i + 1);
-            int off = data.getInt(slotPos);
-            offset += BYTES + data.getInt(off);
+    private void readAhead(List<Integer> pids, int n) throws IOException {
+        if (n % READ_AHEAD_PAGES == 0)
+            bufPool.prefetch(pids.subList(n, Math.min(pids.size(), n + READ_AHEAD_PAGES)));
+    }
+
+    private void readAhead(BufferPool.ScanRing ring, List<Integer> pids, int n) throws IOException {
+        if (n % READ_AHEAD_PAGES == 0)
+            ring.prefetch(pids.subList(n, Math.min(pids.size(), n + READ_AHEAD_PAGES)));
+    }
+
+    private int findPageWithSpace(int recLen, TransactionManager tm) throws IOException {
+        List<Integer> pids = List.copyOf(pageIds);
+        for (int n = 0; n < pids.size(); n++) {
+            int pid = pids.get(n);
+            readAhead(pids, n);
+            Page p = bufPool.fetchPage(pid);
+            int free;
+            p.readLatch().lock();
+            try {
+                free = HeapPage.freeSpace(p.getBuffer());
+            } finally {
+                p.readLatch().unlock();
+                bufPool.unpinPage(pid, false);
+            }
+
+            /*  ⟹  record  = (length-field + body)  +  1 new slot pointer  */
+            if (free >= recLen + 2 * BYTES)      //  <<<  FIX: +BYTES
+                return pid;
         }
-        /* record (len + body) */
-        data.putInt(offset, rec.length);
-        System.arraycopy(rec, 0, p.getData(), offset + BYTES, rec.length);
-        /* slot entry */
-        int slotPos = Page.PAGE_SIZE - BYTES * (slots + 1);
-        data.putInt(slotPos, offset);
-        data.putInt(0, slots + 1);
-        return offset;
+        return allocateFreshPage(tm);
     }
 
     public static record Row(RecordId rid, Tuple tuple) {
@@ -36,24 +36,30 @@ public class Tuple {
     }
 
     public byte[] serialize() {
-        // very naive: write each field in sequence
-        ByteBuffer buf = ByteBuffer.allocate(4096);
+        // very naive: write each field in sequence, sized exactly so no page size caps the record
+        byte[][] strings = new byte[schema.numColumns()][];
+        int size = 0;
+        for (int i = 0; i < schema.numColumns(); i++) {
+            if (schema.getColumnType(i) == Schema.Type.STRING) {
+                strings[i] = ((String) values[i]).getBytes();
+                size += Integer.BYTES + strings[i].length;
+            } else {
+                size += Integer.BYTES;
+            }
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
         for (int i = 0; i < schema.numColumns(); i++) {
             switch (schema.getColumnType(i)) {
                 case INT:
                     buf.putInt(Integer.parseInt(values[i].toString()));
                     break;
                 case STRING:
-                    byte[] s = ((String) values[i]).getBytes();
-                    buf.putInt(s.length);
-                    buf.put(s);
+                    buf.putInt(strings[i].length);
+                    buf.put(strings[i]);
                     break;
             }
         }
-        buf.flip();
-        byte[] data = new byte[buf.limit()];
-        buf.get(data);
-        return data;
+        return buf.array();
     }
 
     public Object getField(int i) {
@@ -30,7 +30,7 @@ class EngineIntegrationTest {
             DiskManager disk = new DiskManager(path);
             BufferPool  pool = new BufferPool(32, disk);
             WALManager  wal  = new WALManager(path);
-            wal.recover(pool, disk);
+            wal.recover(disk);
             TransactionManager tm = new TransactionManager(wal, pool, disk);
             Catalog catalog = new Catalog(path, pool);          // uses same pool
             SimpleExecutor exec = new SimpleExecutor(catalog, tm);
@@ -79,10 +79,10 @@ public class FastVsSafeBenchmarkTest {
                         nanos.addAndGet(end - beg);
                     } catch (Exception e) {
                         System.out.println("Failed to execute: " + sql + e.getMessage());
-                        /* All failures here are due to benign write-write
-                           races (e.g. row was just relocated).  Skip them and
-                           keep hammering so the loop can run for the full
-                           duration. */
+                        /* Writers are serialised by row locks, so the only
+                           expected failure is a deadlock victim being rolled
+                           back.  Skip it and keep hammering so the loop can
+                           run for the full duration. */
                     }
                 }
             });
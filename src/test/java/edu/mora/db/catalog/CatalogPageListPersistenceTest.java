@@ -9,11 +9,13 @@ import edu.mora.db.table.Tuple;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Inserts a row, simulates a crash (without flushing BufferPool), restarts the whole stack, and checks that the row is
@@ -34,7 +36,7 @@ class CatalogPageListPersistenceTest {
         DiskManager d1 = new DiskManager(dir.toString());
         BufferPool p1 = new BufferPool(32, d1);
         WALManager w1 = new WALManager(dir.toString());
-        w1.recover(p1, d1);                       // no-op first boot
+        w1.recover(d1);                           // no-op first boot
         TransactionManager txm1 = new TransactionManager(w1, p1, d1);
         Catalog c1 = new Catalog(dir.toString(), p1);
         SimpleExecutor e1 = new SimpleExecutor(c1, txm1);
@@ -51,7 +53,7 @@ class CatalogPageListPersistenceTest {
         DiskManager d2 = new DiskManager(dir.toString());
         BufferPool p2 = new BufferPool(32, d2);
         WALManager w2 = new WALManager(dir.toString());
-        w2.recover(p2, d2);                       // redo committed work
+        w2.recover(d2);                           // redo committed work
         TransactionManager txm2 = new TransactionManager(w2, p2, d2);
         Catalog c2 = new Catalog(dir.toString(), p2);
         SimpleExecutor e2 = new SimpleExecutor(c2, txm2);
@@ -67,4 +69,38 @@ class CatalogPageListPersistenceTest {
         w2.close();
         d2.close();
     }
-}
\ No newline at end of file
+
+    @Test
+    void pageRegistrationsAreJournalledNotRewritten() throws Exception {
+        DiskManager d1 = new DiskManager(dir.toString());
+        BufferPool p1 = new BufferPool(32, d1);
+        WALManager w1 = new WALManager(dir.toString());
+        TransactionManager txm1 = new TransactionManager(w1, p1, d1);
+        Catalog c1 = new Catalog(dir.toString(), p1);
+        SimpleExecutor e1 = new SimpleExecutor(c1, txm1);
+
+        e1.execute("CREATE TABLE t (id INT, name STRING)");
+        long metaBytes = Files.size(dir.resolve("catalog.meta"));
+        String pad = "x".repeat(100);
+        for (int i = 0; i < 200; i++) e1.execute("INSERT INTO t VALUES (" + i + ", '" + pad + "')");
+
+        assertEquals(metaBytes, Files.size(dir.resolve("catalog.meta")), "inserts must not rewrite catalog.meta");
+        assertTrue(Files.size(dir.resolve("catalog.pages")) > 0);
+        txm1.close();
+        d1.close();
+
+        /* boot #2: pages come back from the journal; the next DDL folds them into the snapshot */
+        DiskManager d2 = new DiskManager(dir.toString());
+        BufferPool p2 = new BufferPool(32, d2);
+        Catalog c2 = new Catalog(dir.toString(), p2);
+        assertEquals(200, c2.getTable("t").scanAll().size());
+        c2.createTable("u", c2.getTable("t").getSchema());
+        assertEquals(0, Files.size(dir.resolve("catalog.pages")));
+        d2.close();
+
+        DiskManager d3 = new DiskManager(dir.toString());
+        Catalog c3 = new Catalog(dir.toString(), new BufferPool(32, d3));
+        assertEquals(200, c3.getTable("t").scanAll().size());
+        d3.close();
+    }
+}
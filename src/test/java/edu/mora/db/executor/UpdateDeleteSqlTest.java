@@ -5,12 +5,17 @@ import edu.mora.db.storage.BufferPool;
 import edu.mora.db.storage.DiskManager;
 import edu.mora.db.storage.TransactionManager;
 import edu.mora.db.storage.WALManager;
+import edu.mora.db.table.Table;
+import edu.mora.db.table.Tuple;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -48,4 +53,62 @@ class UpdateDeleteSqlTest {
         assertEquals(1, rows.size());
         assertTrue(rows.get(0).contains("ALICE"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void selectReadsPastAnUncommittedUpdate() throws Exception {
+        DiskManager disk = new DiskManager(dir.toString());
+        BufferPool pool = new BufferPool(32, disk);
+        WALManager wal = new WALManager(dir.toString());
+        TransactionManager tm = new TransactionManager(wal, pool, disk);
+        Catalog cat = new Catalog(dir.toString(), pool);
+        SimpleExecutor exec = new SimpleExecutor(cat, tm);
+        exec.execute("CREATE TABLE kv (k INT, v INT)");
+        exec.execute("INSERT INTO kv VALUES (1, 10)");
+
+        /* a writer holds the row exclusively; SELECT on the same thread would hang if it waited for the lock */
+        Table tab = cat.getTable("kv");
+        long writer = tm.begin();
+        Table.Row row = tab.scanRows(t -> true).get(0);
+        tab.updateTuple(writer, tm, row.rid(), new Tuple(tab.getSchema(), 1, 11));
+
+        List<Object> seen = new ArrayList<>();
+        exec.execute("SELECT * FROM kv", t -> seen.add(t.getField(1)));
+        assertEquals(List.of(10), seen);
+
+        tm.commit(writer);
+        seen.clear();
+        exec.execute("SELECT * FROM kv", t -> seen.add(t.getField(1)));
+        assertEquals(List.of(11), seen);
+    }
+
+    @Test
+    void concurrentIncrementsAreNotLost() throws Exception {
+        DiskManager disk = new DiskManager(dir.toString());
+        BufferPool pool = new BufferPool(32, disk);
+        WALManager wal = new WALManager(dir.toString());
+        TransactionManager tm = new TransactionManager(wal, pool, disk);
+        Catalog cat = new Catalog(dir.toString(), pool);
+        SimpleExecutor exec = new SimpleExecutor(cat, tm);
+        exec.execute("CREATE TABLE kv (k INT, v INT)");
+        for (int k = 0; k < 4; k++) exec.execute("INSERT INTO kv VALUES (" + k + ", 0)");
+
+        int threads = 4, perThread = 48;
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            done.add(es.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    exec.execute("/*+ FAST */ UPDATE kv SET v = v + 1 WHERE k = " + i % 4);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : done) f.get();
+        es.shutdown();
+
+        List<Object> values = new ArrayList<>();
+        exec.execute("SELECT * FROM kv", t -> values.add(t.getField(1)));
+        assertEquals(List.of(48, 48, 48, 48), values);
+        tm.close();
+    }
+}
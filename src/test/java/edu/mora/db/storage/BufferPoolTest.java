@@ -4,9 +4,18 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class BufferPoolTest {
 
@@ -25,14 +34,12 @@ public class BufferPoolTest {
 
         // modify p1
         Page page1 = buf.getPage(p1);
-        byte[] data1 = page1.getData();
-        data1[0] = 42;
+        page1.getBuffer().put(0, (byte) 42);
         buf.markDirty(p1, true);
 
         // modify p2
         Page page2 = buf.getPage(p2);
-        byte[] data2 = page2.getData();
-        data2[0] = 84;
+        page2.getBuffer().put(0, (byte) 84);
         buf.markDirty(p2, true);
 
         // flush and verify on disk
@@ -56,17 +63,16 @@ public class BufferPoolTest {
 
         // touch p1, p2 in order
         buf.getPage(p1);
-        buf.getPage(p2);
-
-        // now access p1 again so p2 is LRU
-        buf.getPage(p1);
 
         // modify p2 so it's dirty
         Page page2 = buf.getPage(p2);
-        page2.getData()[0] = 7;
+        page2.getBuffer().put(0, (byte) 7);
         buf.markDirty(p2, true);
 
-        // now load p3 into buffer → should evict p2? Actually p2 is LRU, so it should be evicted & flushed
+        // now access p1 again so p2 is LRU
+        buf.getPage(p1);
+
+        // now load p3 into buffer → p2 is LRU, so it should be evicted & flushed
         buf.getPage(p3);
 
         // p2 should have been flushed to disk
@@ -76,4 +82,365 @@ public class BufferPoolTest {
         // cleanup
         buf.flushAll();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testConcurrentReadersAcrossShards() throws Exception {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool buf = new BufferPool(64, disk, 4);
+
+        // 64 pages (16 per shard), each tagged with its own id in byte 0
+        int[] pids = new int[64];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = disk.allocatePage();
+            byte[] img = new byte[Page.PAGE_SIZE];
+            img[0] = (byte) pids[i];
+            disk.writePage(pids[i], img);
+        }
+
+        // 8 threads fault the pages in concurrently; every fetch must return the right page
+        ExecutorService es = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            results.add(es.submit(() -> {
+                int wrong = 0;
+                for (int i = 0; i < 2_000; i++) {
+                    int pid = pids[ThreadLocalRandom.current().nextInt(pids.length)];
+                    Page p = buf.getPage(pid);
+                    p.readLatch().lock();
+                    try {
+                        if (p.getPageId() != pid || p.getBuffer().get(0) != (byte) pid) wrong++;
+                    } finally {
+                        p.readLatch().unlock();
+                    }
+                }
+                return wrong;
+            }));
+        }
+        es.shutdown();
+        for (Future<Integer> f : results) {
+            assertEquals(0, (int) f.get());
+        }
+        assertEquals(4, buf.getShardCount());
+    }
+
+    @Test
+    public void testPinnedPagesAreNeverEvicted() throws IOException {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool buf = new BufferPool(2, disk);
+
+        int p1 = disk.allocatePage();
+        int p2 = disk.allocatePage();
+        int p3 = disk.allocatePage();
+
+        Page page1 = buf.fetchPage(p1);
+        buf.fetchPage(p2);
+
+        // both frames pinned → no victim available
+        assertThrows(IllegalStateException.class, () -> buf.fetchPage(p3));
+
+        // releasing p2 lets p3 in, while pinned p1 stays resident and unchanged
+        buf.unpinPage(p2, false);
+        Page page3 = buf.fetchPage(p3);
+        assertEquals(p3, page3.getPageId());
+        assertEquals(p1, page1.getPageId());
+        assertEquals(1, page1.getPinCount());
+
+        buf.unpinPage(p1, false);
+        buf.unpinPage(p3, false);
+        assertThrows(IllegalStateException.class, () -> buf.unpinPage(p3, false));
+    }
+
+    @Test
+    public void testConcurrentFetchUnderEvictionPressure() throws Exception {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool buf = new BufferPool(16, disk, 2);
+
+        int[] pids = new int[64];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = disk.allocatePage();
+            byte[] img = new byte[Page.PAGE_SIZE];
+            img[0] = (byte) pids[i];
+            disk.writePage(pids[i], img);
+        }
+
+        // a pinned page must keep its identity and contents until it is unpinned
+        ExecutorService es = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            results.add(es.submit(() -> {
+                int wrong = 0;
+                for (int i = 0; i < 2_000; i++) {
+                    int pid = pids[ThreadLocalRandom.current().nextInt(pids.length)];
+                    Page p = buf.fetchPage(pid);
+                    try {
+                        p.readLatch().lock();
+                        try {
+                            if (p.getPageId() != pid || p.getBuffer().get(0) != (byte) pid) wrong++;
+                        } finally {
+                            p.readLatch().unlock();
+                        }
+                    } finally {
+                        buf.unpinPage(pid, false);
+                    }
+                }
+                return wrong;
+            }));
+        }
+        es.shutdown();
+        for (Future<Integer> f : results) {
+            assertEquals(0, (int) f.get());
+        }
+    }
+
+    @Test
+    public void testResizeKeepsPinnedPages() throws IOException {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool buf = new BufferPool(4, disk, 1);
+
+        int p1 = disk.allocatePage();
+        int p2 = disk.allocatePage();
+
+        Page page1 = buf.fetchPage(p1);
+        page1.getBuffer().put(0, (byte) 11);
+        Page page2 = buf.fetchPage(p2);
+        page2.getBuffer().put(0, (byte) 22);
+        buf.unpinPage(p2, true);
+
+        // shrinking to one frame retires (and writes back) p2 but must keep pinned p1
+        assertEquals(1, buf.resize(1));
+        assertEquals(22, disk.readPage(p2)[0]);
+        assertEquals(11, page1.getBuffer().get(0));
+        buf.unpinPage(p1, true);
+
+        assertEquals(8, buf.resize(8));
+        assertEquals(22, buf.getPage(p2).getBuffer().get(0));
+    }
+
+    @Test
+    public void testPrefetchLoadsRunsWithoutClobberingResidentPages() throws IOException {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool buf = new BufferPool(32, disk, 4);
+
+        int[] pids = new int[8];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = disk.allocatePage();
+            byte[] img = new byte[Page.PAGE_SIZE];
+            img[0] = (byte) (pids[i] + 1);
+            disk.writePage(pids[i], img);
+        }
+
+        // p3 is resident and modified in memory only
+        Page page3 = buf.fetchPage(pids[3]);
+        page3.getBuffer().put(0, (byte) 99);
+        buf.unpinPage(pids[3], true);
+
+        // out of order, with a gap: two runs (p0..p4, p6..p7)
+        buf.prefetch(List.of(pids[7], pids[0], pids[1], pids[2], pids[3], pids[4], pids[6]));
+
+        for (int i = 0; i < pids.length; i++) {
+            assertEquals(i != 5, buf.isResident(pids[i]), "page " + pids[i]);
+        }
+        assertEquals(99, buf.getPage(pids[3]).getBuffer().get(0));
+        for (int i : new int[]{0, 1, 2, 4, 6, 7}) {
+            Page p = buf.getPage(pids[i]);
+            assertEquals(pids[i] + 1, p.getBuffer().get(0));
+            assertEquals(0, p.getPinCount());
+        }
+    }
+
+    @Test
+    public void testScanRingLeavesWorkingSetResident() throws IOException {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool buf = new BufferPool(16, disk, 1);
+
+        int[] hot = new int[8];
+        for (int i = 0; i < hot.length; i++) buf.getPage(hot[i] = disk.allocatePage());
+        int[] big = new int[200];
+        for (int i = 0; i < big.length; i++) big[i] = disk.allocatePage();
+
+        try (BufferPool.ScanRing ring = buf.scanRing(big.length)) {
+            for (int pid : big) {
+                Page p = ring.fetchPage(pid);
+                assertEquals(pid, p.getPageId());
+                buf.unpinPage(pid, false);
+            }
+        }
+        for (int pid : hot) assertTrue(buf.isResident(pid), "scan pushed out hot page " + pid);
+        assertEquals(16, buf.getCapacity());
+    }
+
+    @Test
+    public void testScanRingWritesBackAndHandsOverPinnedFrames() throws IOException {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool buf = new BufferPool(8, disk, 1);
+        int p1 = disk.allocatePage();
+        int p2 = disk.allocatePage();
+
+        BufferPool.ScanRing ring = buf.scanRing(100);
+        Page page1 = ring.fetchPage(p1);
+        page1.getBuffer().put(0, (byte) 5);
+        buf.unpinPage(p1, true);
+        Page page2 = ring.fetchPage(p2);          // still pinned when the ring closes
+        ring.close();
+
+        assertEquals(5, disk.readPage(p1)[0]);
+        assertFalse(buf.isResident(p1));
+        assertTrue(buf.isResident(p2));
+        assertEquals(1, page2.getPinCount());
+        buf.unpinPage(p2, false);
+        assertEquals(8, buf.getCapacity());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneRead() throws Exception {
+        SlowDisk disk = new SlowDisk(tempDir.toString());
+        BufferPool buf = new BufferPool(8, disk, 1);
+        int pid = disk.allocatePage();
+        byte[] img = new byte[Page.PAGE_SIZE];
+        img[0] = 7;
+        disk.writePage(pid, img);
+
+        ExecutorService es = Executors.newFixedThreadPool(8);
+        List<Future<Byte>> seen = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            seen.add(es.submit(() -> {
+                Page p = buf.fetchPage(pid);
+                byte b = p.getBuffer().get(0);
+                buf.unpinPage(pid, false);
+                return b;
+            }));
+        }
+        for (Future<Byte> f : seen) assertEquals(7, f.get().intValue());
+        es.shutdown();
+        assertEquals(1, disk.pageReads.get(), "misses on one page must share its read");
+        assertEquals(0, buf.getPage(pid).getPinCount());
+    }
+
+    @Test
+    public void testPrefetchAndFlushKeepSeveralRequestsOutstanding() throws IOException {
+        SlowDisk disk = new SlowDisk(tempDir.toString());
+        BufferPool buf = new BufferPool(64, disk, 4);
+        List<Integer> scattered = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            int pid = disk.allocatePage();
+            disk.allocatePage();                        // a gap, so every page is its own request
+            byte[] img = new byte[Page.PAGE_SIZE];
+            img[0] = (byte) (pid + 1);
+            disk.writePage(pid, img);
+            scattered.add(pid);
+        }
+
+        buf.prefetch(scattered);
+        assertTrue(buf.io.getPeakOutstanding() > 1, "read-ahead went out one request at a time");
+        for (int pid : scattered) {
+            Page p = buf.fetchPage(pid);
+            assertEquals(pid + 1, p.getBuffer().get(0));
+            p.getBuffer().put(1, (byte) 9);
+            buf.unpinPage(pid, true);
+        }
+
+        long writesBefore = buf.io.getWrites();
+        disk.peak.set(0);
+        buf.flushAll();
+        assertEquals(writesBefore + scattered.size(), buf.io.getWrites());
+        assertTrue(disk.peak.get() > 1, "write-back went out one request at a time");
+        for (int pid : scattered) assertEquals(9, disk.readPage(pid)[1]);
+    }
+
+    @Test
+    public void testWriteBackForcesTheLogUpToThePageLsn() throws IOException {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool buf = new BufferPool(1, disk, 1);
+        WALManager wal = new WALManager(tempDir.toString());
+        buf.setWriteAheadLog(wal);
+        int p1 = disk.allocatePage();
+        int p2 = disk.allocatePage();
+
+        Page page = buf.fetchPage(p1);
+        page.writeLatch().lock();
+        page.getBuffer().put(0, (byte) 1);
+        long lsn = wal.logUpdate(1, p1, 0, 1, null, 1, null);
+        buf.markDirty(p1, lsn);
+        page.writeLatch().unlock();
+        buf.unpinPage(p1, false);
+        assertEquals(lsn, page.getPageLsn());
+        assertTrue(wal.getDurableLsn() < lsn, "logging an update must not force the log");
+
+        buf.flushAll();
+        assertTrue(wal.getDurableLsn() >= lsn);
+        long syncs = wal.getSyncCount();
+
+        // a second change is written back by eviction, which must force the log too
+        page = buf.fetchPage(p1);
+        page.getBuffer().put(0, (byte) 2);
+        long lsn2 = wal.logUpdate(1, p1, 0, 1, null, 1, null);
+        buf.markDirty(p1, lsn2);
+        buf.unpinPage(p1, false);
+        buf.getPage(p2);
+        assertEquals(2, disk.readPage(p1)[0]);
+        assertTrue(wal.getDurableLsn() >= lsn2);
+        assertEquals(syncs + 1, wal.getSyncCount());
+        wal.close();
+    }
+
+    @Test
+    public void testDirtyPageTableKeepsTheFirstLsnSinceTheLastWriteBack() throws IOException {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool buf = new BufferPool(4, disk, 1);
+        int p1 = disk.allocatePage();
+        int p2 = disk.allocatePage();
+
+        buf.fetchPage(p1);
+        buf.markDirty(p1, 100);
+        buf.markDirty(p1, 200);
+        buf.unpinPage(p1, false);
+        buf.fetchPage(p2);
+        buf.markDirty(p2, true);                        // unlogged: nothing to redo from
+        buf.unpinPage(p2, false);
+        assertEquals(Map.of(p1, 100L), buf.dirtyPageTable());
+
+        buf.flushAll();
+        assertTrue(buf.dirtyPageTable().isEmpty());
+        buf.fetchPage(p1);
+        buf.markDirty(p1, 300);
+        buf.unpinPage(p1, false);
+        assertEquals(Map.of(p1, 300L), buf.dirtyPageTable());
+    }
+
+    /**
+     * Counts page reads and the most transfers it was asked to do at once, each taking a few milliseconds.
+     */
+    private static final class SlowDisk extends DiskManager {
+        final AtomicInteger pageReads = new AtomicInteger();
+        final AtomicInteger busy = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+
+        SlowDisk(String path) throws IOException {
+            super(path);
+        }
+
+        @Override
+        public void readPage(int pageId, ByteBuffer dst) throws IOException {
+            pageReads.incrementAndGet();
+            slowly();
+            super.readPage(pageId, dst);
+        }
+
+        @Override
+        public void writePage(int pageId, ByteBuffer src) throws IOException {
+            slowly();
+            super.writePage(pageId, src);
+        }
+
+        private void slowly() {
+            peak.accumulateAndGet(busy.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                busy.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package edu.mora.db.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiskManagerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void concurrentAllocationsGetDistinctPages() throws Exception {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        ExecutorService es = Executors.newFixedThreadPool(8);
+        List<Future<int[]>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            results.add(es.submit(() -> {
+                int[] got = new int[100];
+                for (int i = 0; i < got.length; i++) got[i] = disk.allocatePage();
+                return got;
+            }));
+        }
+        es.shutdown();
+        Set<Integer> seen = new HashSet<>();
+        for (Future<int[]> f : results) {
+            for (int pid : f.get()) assertTrue(seen.add(pid), "page " + pid + " handed out twice");
+        }
+        assertEquals(800, disk.getNumPages());
+        disk.close();
+
+        // the allocator resumes after the last page on reopen
+        DiskManager again = new DiskManager(tempDir.toString());
+        assertEquals(800, again.allocatePage());
+        again.close();
+    }
+
+    @Test
+    void concurrentReadersSeeTheirOwnPages() throws Exception {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        int[] pids = new int[32];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = disk.allocatePage();
+            byte[] img = new byte[Page.PAGE_SIZE];
+            img[0] = (byte) i;
+            img[Page.PAGE_SIZE - 1] = (byte) i;
+            disk.writePage(pids[i], img);
+        }
+
+        ExecutorService es = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            results.add(es.submit(() -> {
+                int wrong = 0;
+                ByteBuffer buf = ByteBuffer.allocateDirect(Page.PAGE_SIZE);
+                for (int n = 0; n < 1_000; n++) {
+                    int i = n % pids.length;
+                    buf.clear();
+                    disk.readPage(pids[i], buf);
+                    if (buf.get(0) != (byte) i || buf.get(Page.PAGE_SIZE - 1) != (byte) i) wrong++;
+                }
+                return wrong;
+            }));
+        }
+        es.shutdown();
+        for (Future<Integer> f : results) assertEquals(0, (int) f.get());
+        disk.close();
+    }
+
+    @Test
+    void gatheringWriteAndScatteringReadRoundTrip() throws Exception {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        int first = disk.allocatePage();
+        for (int i = 1; i < 4; i++) disk.allocatePage();
+
+        ByteBuffer[] srcs = new ByteBuffer[4];
+        for (int i = 0; i < srcs.length; i++) {
+            srcs[i] = ByteBuffer.allocateDirect(Page.PAGE_SIZE);
+            srcs[i].put(0, (byte) (10 + i));
+        }
+        disk.writePages(first, srcs);
+
+        for (int i = 0; i < 4; i++) assertEquals(10 + i, disk.readPage(first + i)[0]);
+
+        ByteBuffer[] dsts = new ByteBuffer[4];
+        for (int i = 0; i < dsts.length; i++) dsts[i] = ByteBuffer.allocate(Page.PAGE_SIZE);
+        disk.readPages(first, dsts);
+        for (int i = 0; i < 4; i++) assertEquals(10 + i, dsts[i].get(0));
+        disk.close();
+    }
+
+    @Test
+    void mmapModeServesTheBufferPoolAndLeavesAPlainFile() throws Exception {
+        DiskManager disk = new DiskManager(tempDir.toString(), DiskManager.Mode.MMAP);
+        BufferPool pool = new BufferPool(8, disk, 1);
+        int[] pids = new int[20];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = disk.allocatePage();
+            Page p = pool.fetchPage(pids[i]);
+            p.getBuffer().put(0, (byte) (i + 1));
+            pool.unpinPage(pids[i], true);          // most are evicted through the mapping
+        }
+        pool.flushAll();
+        for (int i = 0; i < pids.length; i++) assertEquals(i + 1, pool.getPage(pids[i]).getBuffer().get(0));
+        assertThrows(EOFException.class, () -> disk.readPage(pids.length));
+        disk.close();
+
+        // reopened with plain positional I/O: same pages, and the file was trimmed to them
+        DiskManager plain = new DiskManager(tempDir.toString());
+        assertEquals(pids.length, plain.getNumPages());
+        for (int i = 0; i < pids.length; i++) assertEquals(i + 1, plain.readPage(pids[i])[0]);
+        plain.close();
+    }
+
+    @Test
+    void fileGrowsByWholeExtentsAndRemembersItsHighWaterMark() throws Exception {
+        Path file = tempDir.resolve("database.db");
+        DiskManager disk = new DiskManager(tempDir.toString(), DiskManager.Mode.CHANNEL, 8);
+        assertEquals(0, disk.allocatePage());
+        assertEquals(8L * Page.PAGE_SIZE, Files.size(file));
+        for (int i = 1; i <= 8; i++) assertEquals(i, disk.allocatePage());
+        assertEquals(16L * Page.PAGE_SIZE, Files.size(file));
+        assertEquals(0, disk.readPage(8)[0]);                 // preallocated pages read as zeros
+        disk.close();
+
+        // clean restart: continues right after the last page handed out
+        DiskManager clean = new DiskManager(tempDir.toString(), DiskManager.Mode.CHANNEL, 8);
+        assertEquals(9, clean.allocatePage());
+        // no close – a crash: the next run skips the rest of the preallocated extent
+        DiskManager afterCrash = new DiskManager(tempDir.toString(), DiskManager.Mode.CHANNEL, 8);
+        assertEquals(16, afterCrash.allocatePage());
+        afterCrash.close();
+        clean.close();
+    }
+
+    @Test
+    void freedPagesAreReusedZeroedAndRememberedAcrossRestart() throws Exception {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        int[] pids = new int[10];
+        for (int i = 0; i < pids.length; i++) pids[i] = disk.allocatePage();
+        byte[] img = new byte[Page.PAGE_SIZE];
+        img[0] = 42;
+        disk.writePage(pids[3], img);
+        disk.freePage(pids[3]);
+        disk.freePage(pids[7]);
+        assertThrows(IllegalStateException.class, () -> disk.freePage(pids[7]));
+        disk.close();
+
+        DiskManager again = new DiskManager(tempDir.toString());
+        assertEquals(2, again.getFreePageCount());
+        assertEquals(pids[3], again.allocatePage());
+        assertEquals(0, again.readPage(pids[3])[0], "a reused page must read as empty");
+        assertEquals(pids[7], again.allocatePage());
+        assertEquals(10, again.allocatePage());     // map exhausted: back to the high-water mark
+        again.close();
+    }
+
+    @Test
+    void pageSizeIsRecordedWhenTheDatabaseIsCreated() throws Exception {
+        Path file = tempDir.resolve("database.db");
+        DiskManager disk = new DiskManager(tempDir.toString(), DiskManager.Mode.CHANNEL, 4, 16384);
+        int pid = disk.allocatePage();
+        byte[] img = new byte[16384];
+        img[16383] = 9;
+        disk.writePage(pid, img);
+        assertEquals(4L * 16384, Files.size(file));
+        disk.close();
+
+        DiskManager again = new DiskManager(tempDir.toString());       // no size given: the recorded one applies
+        assertEquals(16384, again.getPageSize());
+        assertEquals(9, again.readPage(pid)[16383]);
+        again.close();
+
+        assertThrows(java.io.IOException.class, () -> new DiskManager(tempDir.toString(), 8192));
+        assertThrows(IllegalArgumentException.class, () -> new DiskManager(tempDir.toString(), 3000));
+    }
+}
@@ -0,0 +1,38 @@
+package edu.mora.db.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameArenaTest {
+
+    @Test
+    void slotsAreDirectAndDisjoint() {
+        FrameArena arena = new FrameArena(Page.PAGE_SIZE, 4);
+        ByteBuffer a = arena.allocate();
+        ByteBuffer b = arena.allocate();
+
+        assertTrue(a.isDirect());
+        assertEquals(Page.PAGE_SIZE, a.capacity());
+        a.put(0, (byte) 1);
+        b.put(0, (byte) 2);
+        a.put(Page.PAGE_SIZE - 1, (byte) 3);
+        assertEquals(1, a.get(0));
+        assertEquals(2, b.get(0));
+        assertEquals(4L * Page.PAGE_SIZE, arena.reservedBytes());
+    }
+
+    @Test
+    void releasedSlotsAreReusedBeforeGrowing() {
+        FrameArena arena = new FrameArena(Page.PAGE_SIZE, 1);
+        ByteBuffer only = arena.allocate();
+        arena.release(only);
+        assertSame(only, arena.allocate());
+        assertEquals(Page.PAGE_SIZE, arena.reservedBytes());
+
+        arena.allocate();                       // arena is empty → reserves one more slot
+        assertEquals(2L * Page.PAGE_SIZE, arena.reservedBytes());
+    }
+}
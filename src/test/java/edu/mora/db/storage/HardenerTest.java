@@ -0,0 +1,73 @@
+package edu.mora.db.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HardenerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private DiskManager disk;
+    private WALManager wal;
+    private TransactionManager tm;
+    private Page page;
+
+    @BeforeEach
+    void init() throws IOException {
+        disk = new DiskManager(tempDir.toString());
+        BufferPool pool = new BufferPool(4, disk);
+        wal = new WALManager(tempDir.toString());
+        tm = new TransactionManager(wal, pool, disk);
+
+        page = pool.getPage(disk.allocatePage());
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        tm.close();
+    }
+
+    @Test
+    void fastCommitsStayWithinTheLossWindow() throws IOException {
+        tm.setMaxDurabilityLag(Long.MAX_VALUE, 4);
+        for (int i = 0; i < 200; i++) {
+            commitFast(i);
+            TransactionManager.DurabilityLag lag = tm.getDurabilityLag();
+            assertTrue(lag.transactions() <= 4, "lag of " + lag.transactions() + " commits");
+        }
+    }
+
+    @Test
+    void lagDrainsWithoutAnyoneFlushing() throws Exception {
+        long lsn = commitFast(1);
+        tm.whenDurable(lsn).get(5, TimeUnit.SECONDS);
+        TransactionManager.DurabilityLag lag = tm.getDurabilityLag();
+        assertEquals(0, lag.transactions());
+        assertEquals(0, lag.bytes());
+        assertEquals(0, tm.getThrottledCommits());
+    }
+
+    @Test
+    void idleHardenerDoesNotForceTheLog() throws Exception {
+        tm.whenDurable(commitFast(1)).get(5, TimeUnit.SECONDS);
+        long syncs = wal.getSyncCount();
+        Thread.sleep(200);
+        assertEquals(syncs, wal.getSyncCount());
+    }
+
+    private long commitFast(int i) throws IOException {
+        long tx = tm.begin();
+        tm.insertRecord(tx, page, new byte[]{(byte) i});
+        return tm.commit(tx, true);
+    }
+}
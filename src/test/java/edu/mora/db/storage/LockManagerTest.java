@@ -0,0 +1,77 @@
+package edu.mora.db.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LockManagerTest {
+
+    private final LockManager locks = new LockManager();
+    private final RecordId a = new RecordId(1, 4), b = new RecordId(2, 4);
+
+    @Test
+    void sharedLocksAreCompatibleAndBlockAWriter() throws Exception {
+        locks.lock(1, a, LockManager.Mode.SHARED);
+        locks.lock(2, new RecordId(1, 4), LockManager.Mode.SHARED);     // equal keys are the same row
+
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> locks.lock(3, a, LockManager.Mode.EXCLUSIVE));
+        Thread.sleep(100);
+        assertFalse(writer.isDone());
+
+        locks.releaseAll(1);
+        locks.releaseAll(2);
+        writer.get(5, TimeUnit.SECONDS);
+        assertTrue(locks.holds(3, a, LockManager.Mode.SHARED), "exclusive implies shared");
+    }
+
+    @Test
+    void soleReaderUpgradesAndLocksAreReentrant() {
+        locks.lock(1, a, LockManager.Mode.SHARED);
+        locks.lock(1, a, LockManager.Mode.EXCLUSIVE);
+        locks.lock(1, a, LockManager.Mode.SHARED);
+        assertTrue(locks.holds(1, a, LockManager.Mode.EXCLUSIVE));
+        locks.releaseAll(1);
+        assertFalse(locks.holds(1, a, LockManager.Mode.SHARED));
+    }
+
+    @Test
+    void deadlockIsDetectedWellBeforeTheTimeout() throws Exception {
+        locks.lock(1, a, LockManager.Mode.EXCLUSIVE);
+        locks.lock(2, b, LockManager.Mode.EXCLUSIVE);
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> t1 = CompletableFuture.supplyAsync(() -> tryLock(1, b));
+        boolean t2 = tryLock(2, a);
+        boolean t1Got = t1.get(10, TimeUnit.SECONDS);
+
+        assertFalse(t1Got && t2, "at least one side is chosen as the victim");
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(LockManager.DEFAULT_TIMEOUT_MS / 2));
+    }
+
+    @Test
+    void waitingLongerThanTheTimeoutFails() {
+        locks.setTimeout(100);
+        locks.lock(1, a, LockManager.Mode.EXCLUSIVE);
+        long start = System.nanoTime();
+        assertThrows(DeadlockException.class, () -> locks.lock(2, a, LockManager.Mode.SHARED));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    /**
+     * Locks {@code key}, rolling back (releasing everything) on a deadlock, as a transaction would.
+     */
+    private boolean tryLock(long tx, RecordId key) {
+        try {
+            locks.lock(tx, key, LockManager.Mode.EXCLUSIVE);
+            locks.releaseAll(tx);
+            return true;
+        } catch (DeadlockException e) {
+            locks.releaseAll(tx);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package edu.mora.db.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PageCleanerTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Dirties {@code n} pages one after another, tagging byte 0 with the page id.
+     */
+    private int[] dirtyPages(DiskManager disk, BufferPool pool, int n) throws Exception {
+        int[] pids = new int[n];
+        for (int i = 0; i < n; i++) {
+            pids[i] = disk.allocatePage();
+            Page p = pool.fetchPage(pids[i]);
+            p.getBuffer().put(0, (byte) (pids[i] + 1));
+            pool.unpinPage(pids[i], true);
+            Thread.sleep(1);                    // distinct first-dirty times
+        }
+        return pids;
+    }
+
+    @Test
+    void writesOldestDirtyPagesFirst() throws Exception {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool pool = new BufferPool(64, disk, 1);
+        int[] pids = dirtyPages(disk, pool, 8);
+
+        PageCleaner cleaner = new PageCleaner(pool, () -> 0L);
+        assertEquals(PageCleaner.MIN_PAGES_PER_ROUND, cleaner.runOnce());
+
+        for (int i = 0; i < pids.length; i++) {
+            boolean written = i < PageCleaner.MIN_PAGES_PER_ROUND;
+            assertEquals(written ? pids[i] + 1 : 0, disk.readPage(pids[i])[0], "page " + pids[i]);
+            assertEquals(!written, pool.getPage(pids[i]).isDirty());
+        }
+    }
+
+    @Test
+    void pinnedPagesAreLeftAloneUntilOverdue() throws Exception {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool pool = new BufferPool(64, disk, 1);
+        int[] pids = dirtyPages(disk, pool, 2);
+
+        pool.fetchPage(pids[0]);                // hot: still in use
+        PageCleaner cleaner = new PageCleaner(pool, () -> 0L);
+        assertEquals(1, cleaner.runOnce());
+        assertTrue(pool.getPage(pids[0]).isDirty());
+        assertFalse(pool.getPage(pids[1]).isDirty());
+        pool.unpinPage(pids[0], false);
+    }
+
+    @Test
+    void budgetGrowsWithWalTraffic() throws Exception {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool pool = new BufferPool(64, disk, 1);
+        dirtyPages(disk, pool, 20);
+
+        AtomicLong wal = new AtomicLong();
+        PageCleaner cleaner = new PageCleaner(pool, wal::get);
+        wal.addAndGet(10L * Page.PAGE_SIZE);
+        assertEquals(PageCleaner.MIN_PAGES_PER_ROUND + 10, cleaner.runOnce());
+    }
+
+    @Test
+    void budgetGrowsWhenCleanFramesRunShort() throws Exception {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool pool = new BufferPool(64, disk, 1);
+        dirtyPages(disk, pool, 64);             // not a single clean frame left
+
+        PageCleaner cleaner = new PageCleaner(pool, () -> 0L);
+        assertEquals(PageCleaner.MIN_PAGES_PER_ROUND + 64 / 8, cleaner.runOnce());
+    }
+
+    @Test
+    void backgroundCleanerSparesMissesTheWriteBack() throws Exception {
+        DiskManager disk = new DiskManager(tempDir.toString());
+        BufferPool pool = new BufferPool(16, disk, 1);
+        WALManager wal = new WALManager(tempDir.toString());
+        TransactionManager tm = new TransactionManager(wal, pool, disk);
+        int[] pids = dirtyPages(disk, pool, 16);
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!pool.dirtyFrames().isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertTrue(pool.dirtyFrames().isEmpty(), "cleaner never caught up");
+
+        for (int i = 0; i < 16; i++) pool.getPage(disk.allocatePage());
+        assertEquals(0, pool.getSyncWriteBacks());
+        for (int pid : pids) assertEquals(pid + 1, disk.readPage(pid)[0]);
+        tm.close();
+    }
+}
@@ -1,13 +1,20 @@
 package edu.mora.db.storage;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Verifies that TransactionManager’s commit / rollback logic really makes it to disk and survives a restart.
@@ -30,25 +37,27 @@ class TransactionManagerTest {
         tm = new TransactionManager(wal, pool, disk);
     }
 
+    @AfterEach
+    void halt() {
+        tm.halt();                                  // whatever a test left running, without writing anything back
+    }
+
     @Test
     void commitPersistsAfterRecovery() throws IOException {
         int pid = disk.allocatePage();
         Page p = pool.getPage(pid);
 
         long tx = tm.begin();
-        byte[] before = p.getData().clone();
-        p.getData()[0] = 55;
-        byte[] after = p.getData().clone();
-        tm.recordPageUpdate(tx, pid, before, after);
+        int off = tm.insertRecord(tx, p, new byte[]{55});
         tm.commit(tx);
 
-        /* restart */
+        /* crash & restart */
+        tm.halt();
         DiskManager d2 = new DiskManager(tempDir.toString());
-        BufferPool b2 = new BufferPool(4, d2);
         WALManager w2 = new WALManager(tempDir.toString());
-        w2.recover(b2, d2);
+        w2.recover(d2);
 
-        assertEquals(55, d2.readPage(pid)[0]);
+        assertArrayEquals(new byte[]{55}, HeapPage.body(ByteBuffer.wrap(d2.readPage(pid)), off, 1));
     }
 
     @Test
@@ -56,13 +65,127 @@ class TransactionManagerTest {
         int pid = disk.allocatePage();
         Page p = pool.getPage(pid);
 
+        long seed = tm.begin();
+        int off = tm.insertRecord(seed, p, new byte[]{1, 2, 3});
+        tm.commit(seed);
+
         long tx = tm.begin();
-        byte[] before = p.getData().clone();
-        p.getData()[0] = 77;
-        byte[] after = p.getData().clone();
-        tm.recordPageUpdate(tx, pid, before, after);
+        tm.updateRecord(tx, p, off, new byte[]{7, 7, 7});
+        int added = tm.insertRecord(tx, p, new byte[]{8});
         tm.rollback(tx);
+        tm.halt();                                  // no write-back of the cleaner's is still in flight
+        pool.flushAll();                            // a rollback is logged; it leaves write-back to the pool
+
+        ByteBuffer data = ByteBuffer.wrap(disk.readPage(pid));
+        assertArrayEquals(new byte[]{1, 2, 3}, HeapPage.body(data, off, 3), "record should be back to original value");
+        assertEquals(-1, HeapPage.length(data, added), "the rolled-back insert leaves a tombstone");
+    }
+
+    @Test
+    void updatesAreLoggedWithoutAnFsyncEach() throws IOException {
+        int pid = disk.allocatePage();
+        Page p = pool.getPage(pid);
+        long syncs = wal.getSyncCount();
+
+        long tx = tm.begin();
+        int off = tm.insertRecord(tx, p, new byte[]{0});
+        for (int i = 1; i < 200; i++) tm.updateRecord(tx, p, off, new byte[]{(byte) i});
+        assertTrue(wal.getSyncCount() - syncs < 50,
+                   "200 updates took " + (wal.getSyncCount() - syncs) + " fsyncs");
+        tm.commit(tx);
+        assertTrue(wal.getDurableLsn() >= p.getPageLsn());
+    }
+
+    @Test
+    void checkpointLetsTheLogBeTruncated() throws IOException {
+        useSmallSegments();
+        tm.halt();                                  // the hardener takes no checkpoints of its own
+        int pid = disk.allocatePage();
+        Page p = pool.getPage(pid);
+        commitFast(p, 100);
+        pool.flushAll();
+
+        int segments = wal.segmentFiles().size();
+        long active = tm.begin();
+        tm.checkpoint();
+        assertTrue(wal.getCheckpointLsn() > 0);
+        assertTrue(wal.segmentFiles().size() < segments);
+        tm.commit(active);
+    }
+
+    @Test
+    void checkpointForcesTheDataFileBeforeTheLogIsTruncated() throws IOException {
+        List<String> seen = new ArrayList<>();
+        tm.close();
+        disk.close();
+        disk = new DiskManager(tempDir.toString()) {
+            @Override
+            public void sync() throws IOException {
+                seen.add("sync: checkpoint " + wal.getCheckpointLsn() + ", " + wal.segmentFiles().size() + " segments");
+                super.sync();
+            }
+        };
+        pool = new BufferPool(4, disk);
+        wal = new WALManager(tempDir.toString(), 4096);
+        tm = new TransactionManager(wal, pool, disk);
+        tm.halt();                                  // the hardener takes no checkpoints of its own
+        int pid = disk.allocatePage();
+        Page p = pool.getPage(pid);
+        commitFast(p, 100);
+        pool.flushAll();                            // written, but only forced by the checkpoint
+
+        long checkpoint = wal.getCheckpointLsn();
+        int segments = wal.segmentFiles().size();
+        seen.clear();
+        tm.checkpoint();
+        assertEquals(List.of("sync: checkpoint " + checkpoint + ", " + segments + " segments"), seen);
+        assertTrue(wal.getCheckpointLsn() > checkpoint);
+        assertTrue(wal.segmentFiles().size() < segments);
+    }
+
+    @Test
+    void fuzzyCheckpointKeepsTheLogOfDirtyPages() throws IOException {
+        useSmallSegments();
+        int pid = disk.allocatePage();
+        Page p = pool.getPage(pid);
+        commitFast(p, 100);
+        tm.checkpoint();                            // the page may still be dirty: its recLSN holds the log back
+
+        /* crash: the pool is lost, recovery must redo from the recLSN */
+        tm.halt();
+        DiskManager d2 = new DiskManager(tempDir.toString());
+        WALManager w2 = new WALManager(tempDir.toString(), 4096);
+        w2.recover(d2);
+        ByteBuffer page = ByteBuffer.wrap(d2.readPage(pid));
+        assertEquals(100, HeapPage.slotCount(page));
+        for (int i = 1; i <= 100; i++) assertEquals(i, HeapPage.body(page, HeapPage.slotOffset(page, i - 1), 1)[0]);
+    }
+
+    @Test
+    void fastCommitCompletesOnceTheHardenerForcesIt() throws Exception {
+        int pid = disk.allocatePage();
+        Page p = pool.getPage(pid);
+        long tx = tm.begin();
+        tm.insertRecord(tx, p, new byte[]{9});
+
+        long lsn = tm.commit(tx, true);
+        long durable = tm.whenDurable(lsn).get(5, TimeUnit.SECONDS);   // no flush of our own
+        assertTrue(durable >= lsn);
+        assertTrue(tm.getDurableLsn() >= lsn);
+    }
+
+    private void useSmallSegments() throws IOException {
+        tm.close();
+        wal = new WALManager(tempDir.toString(), 4096);
+        tm = new TransactionManager(wal, pool, disk);
+    }
 
-        assertEquals(0, disk.readPage(pid)[0], "byte should be back to original value");
+    private void commitFast(Page p, int n) throws IOException {
+        for (int i = 1; i <= n; i++) {
+            long tx = tm.begin();
+            tm.insertRecord(tx, p, new byte[]{(byte) i});   // each commit adds its own record
+            tm.commit(tx, true);
+            wal.flush();                            // a segment is closed off when the buffer is written
+        }
     }
-}
\ No newline at end of file
+}
@@ -5,11 +5,24 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class WALManagerTest {
 
@@ -37,58 +50,340 @@ public class WALManagerTest {
         long txId = 1L;
         wal.logBegin(txId);
 
-        // get before-image, modify via buffer
+        // insert a record via the buffer
         Page p = buf.getPage(pid);
-        byte[] before = Arrays.copyOf(p.getData(), Page.PAGE_SIZE);
-        p.getData()[0] = 99;
-        byte[] after = Arrays.copyOf(p.getData(), Page.PAGE_SIZE);
+        int off = HeapPage.append(p.getBuffer(), new byte[]{99});
 
-        // log the update and mark dirty
-        wal.logUpdate(txId, pid, before, after);
+        // log the insert and mark dirty
+        wal.logInsert(txId, pid, 0, off, new byte[]{99});
         buf.markDirty(pid, true);
 
-        // commit
+        // commit, and write the log buffer out
         wal.logCommit(txId);
+        wal.flush();
 
         // simulate a fresh restart: discard in-memory state
+        wal.close();                                // the page itself was never written back
+        disk.close();
         disk = new DiskManager(tempDir.toString());
         buf = new BufferPool(5, disk);
         WALManager wal2 = new WALManager(tempDir.toString());
 
         // recover from the log
-        wal2.recover(buf, disk);
+        wal2.recover(disk);
 
         // page on disk should reflect the committed change
-        byte[] diskData = disk.readPage(pid);
-        assertEquals(99, diskData[0]);
+        ByteBuffer diskData = ByteBuffer.wrap(disk.readPage(pid));
+        assertEquals(1, HeapPage.slotCount(diskData));
+        assertArrayEquals(new byte[]{99}, HeapPage.body(diskData, off, 1));
     }
 
     @Test
-    public void testWALDoesNotApplyUncommitted() throws IOException {
+    public void testWALUndoesUncommitted() throws IOException {
         int pid = disk.allocatePage();
 
         long txId = 2L;
         wal.logBegin(txId);
 
         Page p = buf.getPage(pid);
-        byte[] before = Arrays.copyOf(p.getData(), Page.PAGE_SIZE);
-        p.getData()[0] = 123;
-        byte[] after = Arrays.copyOf(p.getData(), Page.PAGE_SIZE);
+        int off = HeapPage.append(p.getBuffer(), new byte[]{123});
 
-        wal.logUpdate(txId, pid, before, after);
+        wal.logInsert(txId, pid, 0, off, new byte[]{123});
         buf.markDirty(pid, true);
 
         // NO commit or abort
+        wal.flush();
 
         // fresh restart
+        wal.close();                                // the page itself was never written back
+        disk.close();
         disk = new DiskManager(tempDir.toString());
         buf = new BufferPool(5, disk);
         WALManager wal2 = new WALManager(tempDir.toString());
 
-        // recover --> should not apply the uncommitted change
-        wal2.recover(buf, disk);
+        // recover --> the uncommitted insert is redone, then undone
+        wal2.recover(disk);
 
-        byte[] diskData = disk.readPage(pid);
-        assertNotEquals(123, diskData[0], "Uncommitted update should not be redone");
+        ByteBuffer diskData = ByteBuffer.wrap(disk.readPage(pid));
+        assertEquals(-1, HeapPage.length(diskData, off), "Uncommitted insert should be left as a tombstone");
+        assertFalse(HeapPage.hasLiveRecords(diskData));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGroupCommitSharesFsyncs() throws Exception {
+        wal.setCommitDelay(50_000, 8);
+        CyclicBarrier start = new CyclicBarrier(8);
+        ExecutorService es = Executors.newFixedThreadPool(8);
+        List<Future<Long>> lsns = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            long tx = t + 1;
+            lsns.add(es.submit(() -> {
+                start.await();
+                long lsn = wal.logCommit(tx);
+                wal.flush(lsn);
+                assertTrue(wal.getDurableLsn() >= lsn);
+                return lsn;
+            }));
+        }
+        for (Future<Long> f : lsns) f.get();
+        es.shutdown();
+
+        assertTrue(wal.getSyncCount() < 8, "8 commits took " + wal.getSyncCount() + " fsyncs");
+        long syncs = wal.getSyncCount();
+        wal.flush(lsns.get(0).get());                   // already durable: no further fsync
+        assertEquals(syncs, wal.getSyncCount());
+    }
+
+    @Test
+    public void testChangesAreLoggedPerRecord() throws IOException {
+        int pid = disk.allocatePage();
+        long begin = wal.logBegin(5);
+        long insert = wal.logInsert(5, pid, 0, HeapPage.HEADER_SIZE, intBody(12345));
+        long update = wal.logUpdate(5, pid, HeapPage.HEADER_SIZE, 4, intBody(12345), 4, intBody(7));
+        long delete = wal.logUpdate(5, pid, HeapPage.HEADER_SIZE, 4, null, -4, null);
+        wal.logCommit(5);
+        // header 13 + pageId, slot, offset, length 16 + body 4
+        assertEquals(13 + 16 + 4, insert - begin);
+        // header 13 + pageId, offset, old and new length, body length 20 + old and new body 2 × 4
+        assertEquals(13 + 20 + 8, update - insert);
+        assertEquals(13 + 20, delete - update);
+        wal.close();
+
+        WALManager wal2 = new WALManager(tempDir.toString());
+        wal2.recover(disk);
+        ByteBuffer page = ByteBuffer.wrap(disk.readPage(pid));
+        assertEquals(delete, HeapPage.lsn(page));
+        assertEquals(1, HeapPage.slotCount(page));
+        assertEquals(-4, HeapPage.length(page, HeapPage.HEADER_SIZE));
+        assertEquals(7, ByteBuffer.wrap(HeapPage.body(page, HeapPage.HEADER_SIZE, 4)).getInt());
+    }
+
+    @Test
+    public void testRecordsReachTheFileOnlyWhenFlushed() throws IOException {
+        long lsn = 0;
+        for (long tx = 1; tx <= 1000; tx++) lsn = wal.logBegin(tx);
+        assertEquals(1000 * 13, lsn);
+        assertEquals(0, bytesOnDisk(), "records are buffered");
+
+        wal.flush(lsn);
+        assertEquals(lsn, bytesOnDisk());
+        assertEquals(lsn, wal.getDurableLsn());
+    }
+
+    @Test
+    public void testConcurrentInsertsAreAllRecovered() throws Exception {
+        int threads = 8, updates = 5_000;                   // ~1.7 MB of records: the ring wraps
+        wal.close();
+        wal = new WALManager(tempDir.toString(), 256 << 10);   // ... and segments roll over
+        int[] pids = new int[threads];
+        for (int t = 0; t < threads; t++) pids[t] = disk.allocatePage();
+
+        CyclicBarrier start = new CyclicBarrier(threads);
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> last = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int pid = pids[t];
+            long tx = 100 + t;
+            last.add(es.submit(() -> {
+                start.await();
+                wal.logBegin(tx);
+                long prev = wal.logInsert(tx, pid, 0, HeapPage.HEADER_SIZE, intBody(0));
+                for (int i = 1; i <= updates; i++) {
+                    long lsn = wal.logUpdate(tx, pid, HeapPage.HEADER_SIZE, 4, intBody(i - 1), 4, intBody(i));
+                    assertTrue(lsn > prev);
+                    prev = lsn;
+                }
+                return wal.logCommit(tx);
+            }));
+        }
+        long maxLsn = 0;
+        for (Future<Long> f : last) maxLsn = Math.max(maxLsn, f.get());
+        es.shutdown();
+        assertEquals(wal.size(), maxLsn);
+        wal.flush();
+        assertEquals(wal.size(), bytesOnDisk());
+        assertTrue(wal.segmentFiles().size() > 1);
+        wal.close();
+
+        new WALManager(tempDir.toString(), 256 << 10).recover(disk);
+        for (int pid : pids) assertEquals(updates, value(pid, 0));
+    }
+
+    @Test
+    public void testCheckpointDeletesSegmentsRecoveryNoLongerNeeds() throws IOException {
+        wal.close();
+        wal = new WALManager(tempDir.toString(), 4096);
+        int pid = disk.allocatePage();
+        ByteBuffer image = ByteBuffer.allocate(Page.PAGE_SIZE);
+        int off = HeapPage.append(image, intBody(0));
+        wal.logBegin(0);
+        wal.logInsert(0, pid, 0, off, intBody(0));
+        wal.logCommit(0);
+
+        /* committed and written back before the checkpoint */
+        for (long tx = 1; tx <= 300; tx++) {
+            wal.logBegin(tx);
+            HeapPage.set(image, off, 4, intBody((int) tx));
+            HeapPage.setLsn(image, wal.logUpdate(tx, pid, off, 4, intBody((int) tx - 1), 4, intBody((int) tx)));
+            wal.flush(wal.logCommit(tx));              // a segment is closed off when the buffer is written
+        }
+        disk.writePage(pid, image.array());
+        int segments = wal.segmentFiles().size();
+        assertTrue(segments > 2);
+
+        /* tx 301 is still running and its page is dirty: both hold back the redo LSN */
+        long begin301 = wal.logBegin(301);
+        long update301 = wal.logUpdate(301, pid, off, 4, intBody(300), 4, intBody(301));
+        long redo = wal.logCheckpoint(wal.size(), Map.of(301L, begin301), Map.of(pid, update301));
+        assertEquals(begin301, redo);
+        assertTrue(wal.segmentFiles().size() < segments, "segments before the redo LSN are deleted");
+        assertEquals(wal.size(), bytesOnDisk() + firstSegmentStart());
+
+        wal.logCommit(301);
+        wal.flush();
+        long size = wal.size();
+        wal.close();
+
+        WALManager reopened = new WALManager(tempDir.toString(), 4096);
+        assertEquals(size, reopened.size(), "LSNs continue across the deleted segments");
+        reopened.recover(disk);
+        assertEquals(301, value(pid, 0));
+        reopened.close();
+    }
+
+    @Test
+    public void testLargeDirtyPageTableSpansSeveralRecords() throws IOException {
+        Map<Integer, Long> dpt = new HashMap<>();
+        for (int pid = 0; pid < 100_000; pid++) dpt.put(pid, 1_000L + pid);   // 1.2 MB: more than the log buffer
+        long begin = wal.size();
+        assertEquals(begin, wal.logCheckpoint(begin, Map.of(), dpt));
+        assertTrue(wal.size() - begin > 100_000 * 12);
+        assertEquals(wal.size(), wal.getDurableLsn());
+        wal.close();
+        new WALManager(tempDir.toString()).recover(disk);            // checkpoint records are skipped by redo
+    }
+
+    @Test
+    public void testParallelRedoAppliesEachPageInLogOrder() throws IOException {
+        wal.close();
+        wal = new WALManager(tempDir.toString(), 4096);
+        int[] pids = new int[6];
+        for (int i = 0; i < pids.length; i++) pids[i] = disk.allocatePage();
+        int a = HeapPage.HEADER_SIZE, b = a + 4 + 4;     // two records on every page
+
+        wal.logBegin(9);
+        for (int pid : pids) {
+            wal.logInsert(9, pid, 0, a, intBody(0));
+            wal.logInsert(9, pid, 1, b, intBody(0));
+        }
+        wal.logCommit(9);
+
+        /* tx 1 and 2 interleave on record a of every page, tx 2 commits first; tx 3 changes b and never ends */
+        for (long tx = 1; tx <= 3; tx++) wal.logBegin(tx);
+        for (int round = 1; round <= 100; round++) {
+            for (int pid : pids) {
+                wal.logUpdate(1, pid, a, 4, intBody(round == 1 ? 0 : 2000 + round - 1), 4, intBody(1000 + round));
+                wal.logUpdate(2, pid, a, 4, intBody(1000 + round), 4, intBody(2000 + round));
+                wal.logUpdate(3, pid, b, 4, intBody(round == 1 ? 0 : 3000 + round - 1), 4, intBody(3000 + round));
+            }
+            wal.flush();                                // several segments
+        }
+        wal.logCommit(2);
+        wal.logCommit(1);
+        wal.flush();
+        assertTrue(wal.segmentFiles().size() > 1);
+
+        wal.recover(disk, 4);
+        for (int pid : pids) {
+            assertEquals(2100, value(pid, 0));          // tx 2 wrote last
+            assertEquals(0, value(pid, 1));             // tx 3 is rolled back
+        }
+
+        wal.recover(disk, 4);                           // its rollback was logged: a second recovery repeats it
+        for (int pid : pids) {
+            assertEquals(2100, value(pid, 0));
+            assertEquals(0, value(pid, 1));
+        }
+    }
+
+    @Test
+    public void testWhenDurableCompletesWithTheCoveringFlush() throws Exception {
+        long first = wal.logCommit(1);
+        long second = wal.logCommit(2);
+        CompletableFuture<Long> f1 = wal.whenDurable(first), f2 = wal.whenDurable(second);
+        assertFalse(f1.isDone());
+
+        wal.flush(first);                               // forces everything published: covers both
+        assertEquals(second, f1.get().longValue());
+        assertEquals(second, f2.get().longValue());
+        assertTrue(wal.whenDurable(second).isDone());
+
+        CompletableFuture<Long> f3 = wal.whenDurable(wal.logCommit(3));
+        wal.close();
+        assertTrue(f3.isCompletedExceptionally(), "a close without a flush fails the waiters");
+    }
+
+    @Test
+    public void testTornTailIsCutBeforeTheNextAppend() throws IOException {
+        int pid = disk.allocatePage();
+        wal.logBegin(1);
+        int off1 = HeapPage.append(buf.getPage(pid).getBuffer(), intBody(1));
+        wal.logInsert(1, pid, 0, off1, intBody(1));
+        wal.logCommit(1);
+        wal.flush();
+        wal.close();                                // the page itself was never written back
+
+        // the crash left the first 9 bytes of an insert: its length, type and half the transaction id
+        Path last = wal.segmentFiles().get(wal.segmentFiles().size() - 1);
+        long whole = Files.size(last);
+        Files.write(last, ByteBuffer.allocate(9).putInt(33).put((byte) 7).putInt(0).array(),
+                    StandardOpenOption.APPEND);
+
+        // second run: recover, then commit another row and crash before its page is written back
+        disk.close();
+        disk = new DiskManager(tempDir.toString());
+        buf = new BufferPool(5, disk);
+        wal = new WALManager(tempDir.toString());
+        assertEquals(whole, Files.size(last), "the torn record is cut off when the log is opened");
+        wal.recover(disk);
+        wal.logBegin(2);
+        int off2 = HeapPage.append(buf.getPage(pid).getBuffer(), intBody(2));
+        wal.logInsert(2, pid, 1, off2, intBody(2));
+        wal.logCommit(2);
+        wal.flush();
+        wal.close();
+
+        // third run: both committed rows are recovered
+        disk.close();
+        disk = new DiskManager(tempDir.toString());
+        buf = new BufferPool(5, disk);
+        wal = new WALManager(tempDir.toString());
+        wal.recover(disk);
+        assertEquals(2, HeapPage.slotCount(ByteBuffer.wrap(disk.readPage(pid))));
+        assertEquals(1, value(pid, 0));
+        assertEquals(2, value(pid, 1));
+    }
+
+    private static byte[] intBody(int v) {
+        return ByteBuffer.allocate(4).putInt(v).array();
+    }
+
+    /**
+     * The int held by the record in {@code slot} of the page on disk.
+     */
+    private int value(int pid, int slot) throws IOException {
+        ByteBuffer page = ByteBuffer.wrap(disk.readPage(pid));
+        return ByteBuffer.wrap(HeapPage.body(page, HeapPage.slotOffset(page, slot), 4)).getInt();
+    }
+
+    private long firstSegmentStart() {
+        String name = wal.segmentFiles().get(0).getFileName().toString();
+        return Long.parseLong(name.substring(4, name.length() - 4), 16);
+    }
+
+    private long bytesOnDisk() throws IOException {
+        long n = 0;
+        for (Path f : wal.segmentFiles()) n += Files.size(f);
+        return n;
+    }
+}
@@ -5,10 +5,10 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
 /**
  * Unit-tests the WAL itself (no TransactionManager or Table).
@@ -33,13 +33,11 @@ class WALRecoveryTest {
     void committedUpdateIsRedone() throws IOException {
         int pid = disk.allocatePage();
 
-        /* ---- TX 1: update first byte to 42 and COMMIT ---- */
+        /* ---- TX 1: insert a record holding 42 and COMMIT ---- */
         wal.logBegin(1);
         Page p = pool.getPage(pid);
-        byte[] before = p.getData().clone();
-        p.getData()[0] = 42;
-        byte[] after = p.getData().clone();
-        wal.logUpdate(1, pid, before, after);
+        int off = HeapPage.append(p.getBuffer(), new byte[]{42});
+        wal.logInsert(1, pid, 0, off, new byte[]{42});
         wal.logCommit(1);
         wal.flush();
 
@@ -47,30 +45,34 @@ class WALRecoveryTest {
         disk = new DiskManager(tempDir.toString());
         pool = new BufferPool(4, disk);
         WALManager wal2 = new WALManager(tempDir.toString());
-        wal2.recover(pool, disk);
+        wal2.recover(disk);
 
-        assertEquals(42, disk.readPage(pid)[0], "redo should apply committed update");
+        ByteBuffer page = ByteBuffer.wrap(disk.readPage(pid));
+        assertEquals(42, HeapPage.body(page, off, 1)[0], "redo should apply committed update");
     }
 
     @Test
     void uncommittedUpdateIsUndone() throws IOException {
         int pid = disk.allocatePage();
 
-        /* ---- TX 2: write byte 99 but do NOT commit ---- */
-        wal.logBegin(2);
+        /* ---- TX 1 inserts 7 and commits; TX 2 changes it to 99 but does NOT commit ---- */
+        wal.logBegin(1);
         Page p = pool.getPage(pid);
-        byte[] before = p.getData().clone();
-        p.getData()[0] = 99;
-        byte[] after = p.getData().clone();
-        wal.logUpdate(2, pid, before, after);
+        int off = HeapPage.append(p.getBuffer(), new byte[]{7});
+        wal.logInsert(1, pid, 0, off, new byte[]{7});
+        wal.logCommit(1);
+        wal.logBegin(2);
+        HeapPage.set(p.getBuffer(), off, 1, new byte[]{99});
+        wal.logUpdate(2, pid, off, 1, new byte[]{7}, 1, new byte[]{99});
         wal.flush();
 
         /* ---- crash & recover ---- */
         disk = new DiskManager(tempDir.toString());
         pool = new BufferPool(4, disk);
         WALManager wal2 = new WALManager(tempDir.toString());
-        wal2.recover(pool, disk);
+        wal2.recover(disk);
 
-        assertNotEquals(99, disk.readPage(pid)[0], "uncommitted update must NOT be redone");
+        ByteBuffer page = ByteBuffer.wrap(disk.readPage(pid));
+        assertEquals(7, HeapPage.body(page, off, 1)[0], "uncommitted update must be undone");
     }
 }
\ No newline at end of file
@@ -77,4 +77,40 @@ class TableBasicCrudTest {
 
         assertTrue(table.scanAll().isEmpty(), "table should be empty after delete");
     }
-}
\ No newline at end of file
+
+    @Test
+    void insertAfterDeleteDoesNotOverwriteLaterRecords() throws Exception {
+        long tx = tm.begin();
+        RecordId a = table.insertTuple(tx, tm, new Tuple(table.getSchema(), 1, "aaaa"));
+        RecordId b = table.insertTuple(tx, tm, new Tuple(table.getSchema(), 2, "bbbb"));
+        table.deleteTuple(tx, tm, a);
+        RecordId c = table.insertTuple(tx, tm, new Tuple(table.getSchema(), 3, "cccc"));
+        tm.commit(tx);
+
+        assertNotEquals(b, c);
+        assertEquals("bbbb", table.readTuple(b).getField(1));
+        assertEquals("cccc", table.readTuple(c).getField(1));
+        assertEquals(2, table.scanAll().size());
+    }
+
+    @Test
+    void rollbackLeavesInterleavedInsertsOfOthersAlone() throws Exception {
+        long seed = tm.begin();
+        RecordId a = table.insertTuple(seed, tm, new Tuple(table.getSchema(), 1, "seed"));
+        tm.commit(seed);
+
+        long t1 = tm.begin(), t2 = tm.begin();
+        RecordId r1 = table.insertTuple(t1, tm, new Tuple(table.getSchema(), 2, "rolled back"));
+        RecordId r2 = table.insertTuple(t2, tm, new Tuple(table.getSchema(), 3, "committed"));
+        table.updateTuple(t1, tm, a, new Tuple(table.getSchema(), 1, "SEED"));
+        assertEquals(r1.getPageId(), r2.getPageId(), "both inserts should share the page");
+        tm.commit(t2);
+        tm.rollback(t1);
+
+        assertThrows(IllegalStateException.class, () -> table.readTuple(r1), "the rolled-back insert is a tombstone");
+        assertEquals("committed", table.readTuple(r2).getField(1));
+        assertEquals("seed", table.readTuple(a).getField(1));
+        assertEquals(List.of("seed", "committed"),
+                     table.scanAll().stream().map(t -> (String) t.getField(1)).toList());
+    }
+}
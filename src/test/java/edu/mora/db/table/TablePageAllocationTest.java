@@ -3,14 +3,17 @@ package edu.mora.db.table;
 import edu.mora.db.catalog.Catalog;
 import edu.mora.db.storage.BufferPool;
 import edu.mora.db.storage.DiskManager;
+import edu.mora.db.storage.HeapPage;
+import edu.mora.db.storage.RecordId;
 import edu.mora.db.storage.TransactionManager;
 import edu.mora.db.storage.WALManager;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Inserts enough rows to force the heap file to allocate multiple pages and verifies that those pages really exist on
@@ -57,4 +60,122 @@ class TablePageAllocationTest {
         assertTrue(pageCount > 1,
                    "expected the heap file to have grown beyond one page but found " + pageCount);
     }
-}
\ No newline at end of file
+
+    @Test
+    void vacuumedPagesAreReusedInsteadOfGrowingTheFile() throws Exception {
+        DiskManager dm = new DiskManager(dir.toString());
+        BufferPool pool = new BufferPool(32, dm);
+        WALManager wal = new WALManager(dir.toString());
+        TransactionManager txm = new TransactionManager(wal, pool, dm);
+        Catalog cat = new Catalog(dir.toString(), pool);
+        Schema schema = new Schema(
+                java.util.List.of("id", "val"),
+                java.util.List.of(Schema.Type.INT, Schema.Type.STRING));
+        cat.createTable("churn", schema);
+        Table tbl = cat.getTable("churn");
+
+        long tx = txm.begin();
+        for (int i = 0; i < 200; i++) tbl.insertTuple(tx, txm, new Tuple(schema, i, "x".repeat(128)));
+        txm.commit(tx);
+        int pagesUsed = dm.getNumPages();
+
+        tx = txm.begin();
+        for (Table.Row r : tbl.scanRows(t -> true)) tbl.deleteTuple(tx, txm, r.rid());
+        assertThrows(IllegalStateException.class, () -> tbl.vacuum(txm));     // tx still open
+        txm.commit(tx);
+
+        int released = tbl.vacuum(txm);
+        assertTrue(released > 1, "expected the emptied pages back, got " + released);
+        assertEquals(released, dm.getFreePageCount());
+        assertTrue(tbl.scanAll().isEmpty());
+
+        tx = txm.begin();
+        for (int i = 0; i < 200; i++) tbl.insertTuple(tx, txm, new Tuple(schema, i, "y".repeat(128)));
+        txm.commit(tx);
+        assertEquals(pagesUsed, dm.getNumPages(), "refill must reuse the released pages");
+        assertEquals(0, dm.getFreePageCount());
+        assertEquals(200, tbl.scanAll().size());
+        txm.close();
+        dm.close();
+
+        /* the catalog journal and the free-space map agree after a restart */
+        DiskManager dm2 = new DiskManager(dir.toString());
+        Catalog cat2 = new Catalog(dir.toString(), new BufferPool(32, dm2));
+        assertEquals(200, cat2.getTable("churn").scanAll().size());
+        assertEquals(0, dm2.getFreePageCount());
+        dm2.close();
+    }
+
+    @Test
+    void reusedPageRecoversWithOnlyItsNewRows() throws Exception {
+        DiskManager dm = new DiskManager(dir.toString());
+        BufferPool pool = new BufferPool(32, dm);
+        WALManager wal = new WALManager(dir.toString());
+        TransactionManager txm = new TransactionManager(wal, pool, dm);
+        Catalog cat = new Catalog(dir.toString(), pool);
+        Schema schema = new Schema(
+                java.util.List.of("a", "b", "c"),
+                java.util.List.of(Schema.Type.INT, Schema.Type.INT, Schema.Type.INT));
+        cat.createTable("reuse", schema);
+        Table tbl = cat.getTable("reuse");
+
+        long tx = txm.begin();
+        for (int i = 1; i <= 3; i++) tbl.insertTuple(tx, txm, new Tuple(schema, -i, -i, -i));
+        txm.commit(tx);
+        tx = txm.begin();
+        for (Table.Row r : tbl.scanRows(t -> true)) tbl.deleteTuple(tx, txm, r.rid());
+        txm.commit(tx);                                 // written back: the page's first life is on disk
+        assertEquals(1, tbl.vacuum(txm));
+
+        tx = txm.begin();
+        RecordId rid = tbl.insertTuple(tx, txm, new Tuple(schema, 0, 0, 0));
+        txm.whenDurable(txm.commit(tx, true)).get(5, java.util.concurrent.TimeUnit.SECONDS);
+        assertEquals(0, dm.getFreePageCount(), "the insert must reuse the page");
+        txm.halt();                                     // crash: the page is not written back again
+        wal.close();
+        dm.close();
+
+        DiskManager dm2 = new DiskManager(dir.toString());
+        BufferPool pool2 = new BufferPool(32, dm2);
+        new WALManager(dir.toString()).recover(dm2);
+        java.util.List<Tuple> rows = new Catalog(dir.toString(), pool2).getTable("reuse").scanAll();
+        assertEquals(1, rows.size());
+        assertEquals(java.util.List.of(0, 0, 0),
+                     java.util.List.of(rows.get(0).getField(0), rows.get(0).getField(1), rows.get(0).getField(2)));
+
+        /* nothing of the page's first life is left around the new record */
+        ByteBuffer page = ByteBuffer.wrap(dm2.readPage(rid.getPageId()));
+        assertEquals(1, HeapPage.slotCount(page));
+        int end = rid.getOffset() + Integer.BYTES + HeapPage.length(page, rid.getOffset());
+        for (int i = end; i < page.capacity() - Integer.BYTES; i++) assertEquals(0, page.get(i), "byte " + i);
+        dm2.close();
+    }
+
+    @Test
+    void largerPagesHoldTuplesThatDoNotFitTheDefaultSize() throws Exception {
+        DiskManager dm = new DiskManager(dir.toString(), 16384);
+        BufferPool pool = new BufferPool(8, dm);
+        Catalog cat = new Catalog(dir.toString(), pool);
+        Schema schema = new Schema(
+                java.util.List.of("id", "val"),
+                java.util.List.of(Schema.Type.INT, Schema.Type.STRING));
+        cat.createTable("wide", schema);
+        Table tbl = cat.getTable("wide");
+
+        WALManager wal = new WALManager(dir.toString());
+        TransactionManager txm = new TransactionManager(wal, pool, dm);
+        long tx = txm.begin();
+        tbl.insertTuple(tx, txm, new Tuple(schema, 1, "w".repeat(10_000)));
+        tbl.insertTuple(tx, txm, new Tuple(schema, 2, "v".repeat(5_000)));
+        txm.commit(tx);
+        assertEquals(1, dm.getNumPages(), "both rows fit one 16 KiB page");
+        pool.flushAll();
+        txm.close();
+        dm.close();
+
+        DiskManager dm2 = new DiskManager(dir.toString());
+        Catalog cat2 = new Catalog(dir.toString(), new BufferPool(8, dm2));
+        assertEquals(10_000, ((String) cat2.getTable("wide").scanAll().get(0).getField(1)).length());
+        dm2.close();
+    }
+}
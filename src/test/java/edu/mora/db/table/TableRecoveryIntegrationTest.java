@@ -3,6 +3,7 @@ package edu.mora.db.table;
 import edu.mora.db.catalog.Catalog;
 import edu.mora.db.executor.SimpleExecutor;
 import edu.mora.db.storage.BufferPool;
+import edu.mora.db.storage.RecordId;
 import edu.mora.db.storage.DiskManager;
 import edu.mora.db.storage.TransactionManager;
 import edu.mora.db.storage.WALManager;
@@ -12,6 +13,7 @@ import org.junit.jupiter.api.io.TempDir;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -39,6 +41,7 @@ class TableRecoveryIntegrationTest {
         exec1.execute("INSERT INTO t VALUES (1, 'one')");
         exec1.execute("INSERT INTO t VALUES (2, 'two')");
         // no graceful shutdown – simulate crash
+        tx1.halt();
         w1.close();
         d1.close();
 
@@ -46,7 +49,7 @@ class TableRecoveryIntegrationTest {
         DiskManager d2 = new DiskManager(dir.toString());
         BufferPool p2 = new BufferPool(32, d2);
         WALManager w2 = new WALManager(dir.toString());
-        w2.recover(p2, d2);
+        w2.recover(d2);
         TransactionManager tx2 = new TransactionManager(w2, p2, d2);
         Catalog cat2 = new Catalog(dir.toString(), p2);
         SimpleExecutor exec2 = new SimpleExecutor(cat2, tx2);
@@ -67,4 +70,49 @@ class TableRecoveryIntegrationTest {
         w2.close();
         d2.close();
     }
-}
\ No newline at end of file
+
+    @Test
+    void uncommittedInsertNextToACommittedOneIsRolledBackAfterCrash() throws Exception {
+        /* -------------- boot #1 ---------------- */
+        DiskManager d1 = new DiskManager(dir.toString());
+        BufferPool p1 = new BufferPool(32, d1);
+        WALManager w1 = new WALManager(dir.toString());
+        TransactionManager tx1 = new TransactionManager(w1, p1, d1);
+        Catalog cat1 = new Catalog(dir.toString(), p1);
+        Schema schema = new Schema(List.of("id", "name"), List.of(Schema.Type.INT, Schema.Type.STRING));
+        cat1.createTable("t", schema);
+        Table t1 = cat1.getTable("t");
+
+        long b = tx1.begin();
+        t1.insertTuple(b, tx1, new Tuple(schema, 1, "never committed"));
+        long c = tx1.begin();
+        RecordId committed = t1.insertTuple(c, tx1, new Tuple(schema, 2, "committed"));
+        tx1.whenDurable(tx1.commit(c, true)).get(5, TimeUnit.SECONDS);
+        p1.flushAll();                                  // the page reaches the disk with both inserts
+        // no graceful shutdown – simulate crash
+        tx1.halt();
+        w1.close();
+        d1.close();
+
+        /* -------------- boot #2 (recovery) ----- */
+        DiskManager d2 = new DiskManager(dir.toString());
+        BufferPool p2 = new BufferPool(32, d2);
+        WALManager w2 = new WALManager(dir.toString());
+        w2.recover(d2);
+        TransactionManager tx2 = new TransactionManager(w2, p2, d2);
+        Table t2 = new Catalog(dir.toString(), p2).getTable("t");
+
+        List<Tuple> rows = t2.scanAll();
+        assertEquals(1, rows.size());
+        assertEquals("committed", rows.get(0).getField(1));
+        assertEquals("committed", t2.readTuple(committed).getField(1));
+
+        long d = tx2.begin();
+        t2.insertTuple(d, tx2, new Tuple(schema, 3, "after recovery"));
+        tx2.commit(d);
+        assertEquals(2, t2.scanAll().size());
+
+        tx2.close();
+        d2.close();
+    }
+}
@@ -0,0 +1,125 @@
+package edu.mora.db.table;
+
+import edu.mora.db.catalog.Catalog;
+import edu.mora.db.storage.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Snapshot reads: a scan sees exactly the transactions committed when its snapshot was taken, without taking locks.
+ */
+class TableSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private TransactionManager tm;
+    private Table table;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        DiskManager disk = new DiskManager(dir.toString());
+        BufferPool pool = new BufferPool(8, disk);
+        tm = new TransactionManager(new WALManager(dir.toString()), pool, disk);
+        Catalog cat = new Catalog(dir.toString(), pool);
+        cat.createTable("emp", new Schema(List.of("id", "name"), List.of(Schema.Type.INT, Schema.Type.STRING)));
+        table = cat.getTable("emp");
+    }
+
+    @Test
+    void snapshotSeesNeitherRunningNorLaterTransactions() throws Exception {
+        long tx = tm.begin();
+        RecordId alice = table.insertTuple(tx, tm, new Tuple(table.getSchema(), 1, "alice"));
+        RecordId bob = table.insertTuple(tx, tm, new Tuple(table.getSchema(), 2, "bob"));
+        tm.commit(tx);
+
+        try (Snapshot before = tm.snapshot()) {
+            long writer = tm.begin();
+            table.updateTuple(writer, tm, alice, new Tuple(table.getSchema(), 1, "alice-the-longer")); // relocates
+            table.deleteTuple(writer, tm, bob);
+            table.insertTuple(writer, tm, new Tuple(table.getSchema(), 3, "carol"));
+
+            /* the writer holds every row exclusively: a locking read on this thread would never return */
+            try (Snapshot during = tm.snapshot()) {
+                assertEquals(setOf("1:alice", "2:bob"), rows(during));
+            }
+            tm.commit(writer);
+
+            assertEquals(setOf("1:alice", "2:bob"), rows(before));
+            try (Snapshot after = tm.snapshot()) {
+                assertEquals(setOf("1:alice-the-longer", "3:carol"), rows(after));
+            }
+        }
+    }
+
+    @Test
+    void rollbackLeavesNoVersionsBehind() throws Exception {
+        long tx = tm.begin();
+        RecordId rid = table.insertTuple(tx, tm, new Tuple(table.getSchema(), 1, "alice"));
+        tm.commit(tx);
+        awaitNoVersions();
+
+        long loser = tm.begin();
+        table.updateTuple(loser, tm, rid, new Tuple(table.getSchema(), 1, "ALICE"));
+        table.insertTuple(loser, tm, new Tuple(table.getSchema(), 2, "bob"));
+        assertEquals(2, tm.retainedVersions());
+        tm.rollback(loser);
+
+        assertEquals(0, tm.retainedVersions());
+        try (Snapshot s = tm.snapshot()) {
+            assertEquals(setOf("1:alice"), rows(s));
+        }
+    }
+
+    @Test
+    void prunerKeepsVersionsOnlyWhileASnapshotNeedsThem() throws Exception {
+        long tx = tm.begin();
+        RecordId rid = table.insertTuple(tx, tm, new Tuple(table.getSchema(), 1, "alice"));
+        tm.commit(tx);
+        awaitNoVersions();                          // nobody could ever need the state before the insert
+
+        Snapshot old = tm.snapshot();
+        for (int i = 0; i < 5; i++) {
+            long w = tm.begin();
+            rid = table.updateTuple(w, tm, rid, new Tuple(table.getSchema(), 1, "v" + i));
+            tm.commit(w);
+        }
+        Thread.sleep(300);                          // a few pruner rounds
+        assertTrue(tm.retainedVersions() > 0);
+        assertEquals(setOf("1:alice"), rows(old));
+
+        old.close();
+        awaitNoVersions();
+        try (Snapshot s = tm.snapshot()) {
+            assertEquals(setOf("1:v4"), rows(s));
+        }
+    }
+
+    /* ---------- helpers ---------- */
+
+    private TreeSet<String> rows(Snapshot s) throws IOException {
+        TreeSet<String> out = new TreeSet<>();
+        for (Tuple t : table.scan(s, t -> true)) out.add(t.getField(0) + ":" + t.getField(1));
+        return out;
+    }
+
+    private static TreeSet<String> setOf(String... rows) {
+        return new TreeSet<>(List.of(rows));
+    }
+
+    private void awaitNoVersions() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (tm.retainedVersions() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "versions were never pruned");
+            Thread.sleep(10);
+        }
+    }
+}
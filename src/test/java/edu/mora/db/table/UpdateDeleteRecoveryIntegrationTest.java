@@ -40,6 +40,7 @@ class UpdateDeleteRecoveryIntegrationTest {
         e1.execute("DELETE FROM t WHERE id = 2");
 
         // crash: no flush
+        tx1.halt();
         w1.close();
         d1.close();
 
@@ -47,7 +48,7 @@ class UpdateDeleteRecoveryIntegrationTest {
         DiskManager d2 = new DiskManager(dir.toString());
         BufferPool p2 = new BufferPool(32, d2);
         WALManager w2 = new WALManager(dir.toString());
-        w2.recover(p2, d2);
+        w2.recover(d2);
         TransactionManager tx2 = new TransactionManager(w2, p2, d2);
         Catalog cat2 = new Catalog(dir.toString(), p2);
         SimpleExecutor e2 = new SimpleExecutor(cat2, tx2);